@@ -0,0 +1,64 @@
+package wiregenerator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ByteProcessor;
+
+/*
+ * Drawing one wire into a ByteProcessor (the canvas is not cleared, like in a real image).
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DrawBenchmark {
+
+	private static final int WIRES = 1024;
+
+	@Param({"straight", "bent"})
+	public String shape;
+
+	@Param({"1024", "4096"})
+	public int image_size;
+
+	@Param({"5", "20"})
+	public double width;
+
+	private final Object[] wires = new Object[WIRES];
+	private int next = 0;
+	private ByteProcessor canvas;
+
+	@Setup
+	public void setup() throws Throwable {
+		Object params = Plugin.parameters(Plugin.config(image_size, width, width, shape.equals("bent") ? 180 : 0), false, 0);
+		Object random = (Object) Plugin.FOR_IMAGE.invokeExact(42L, 0, 0);
+		for (int i = 0; i < WIRES; i++){
+			wires[i] = (Object) Plugin.NEW_WIRE.invokeExact(params, random);
+		}
+		canvas = new ByteProcessor(image_size, image_size);
+	}
+
+	@Benchmark
+	public ByteProcessor draw() throws Throwable {
+		Object wire = wires[next];
+		next = (next+1) & (WIRES-1);
+		Plugin.DRAW.invokeExact(wire, canvas);
+		return canvas;
+	}
+
+}
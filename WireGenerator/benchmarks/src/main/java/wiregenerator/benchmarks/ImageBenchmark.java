@@ -0,0 +1,72 @@
+package wiregenerator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ByteProcessor;
+
+/*
+ * Whole images: creating (all wires drawn into a BitCanvas, nothing saved) and one FCR pass
+ * (connected regions, coverage and percolation, without the label image) on the 8 bit image
+ * and on the packed image.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageBenchmark {
+
+	@Param({"100", "1000"})
+	public int wires;
+
+	@Param({"1024", "4096"})
+	public int image_size;
+
+	@Param({"90"})
+	public double max_opening_angle;
+
+	// threads for drawing and labeling of one image
+	@Param({"1"})
+	public int threads;
+
+	private Object params;
+	private Object canvas;
+	private ByteProcessor picture;
+
+	@Setup
+	public void setup() throws Throwable {
+		params = Plugin.parameters(Plugin.config(image_size, 10, 20, max_opening_angle), false, 0);
+		canvas = (Object) Plugin.DRAW_PICTURE.invokeExact(params, wires, 0, threads);
+		picture = (ByteProcessor) Plugin.TO_BYTE_PROCESSOR.invokeExact(canvas);
+	}
+
+	@Benchmark
+	public Object createPicture() throws Throwable {
+		return (Object) Plugin.DRAW_PICTURE.invokeExact(params, wires, 0, threads);
+	}
+
+	@Benchmark
+	public Object fcr() throws Throwable {
+		return (Object) Plugin.LABEL.invokeExact(picture, threads, false);
+	}
+
+	@Benchmark
+	public Object fcrPacked() throws Throwable {
+		return (Object) Plugin.LABEL_PACKED.invokeExact(canvas, threads, false);
+	}
+
+}
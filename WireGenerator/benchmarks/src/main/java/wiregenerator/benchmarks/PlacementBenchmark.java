@@ -0,0 +1,60 @@
+package wiregenerator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ini4j.Ini;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Wire.IsInPicture() for straight and bent wires, also for wires that are partly outside.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PlacementBenchmark {
+
+	private static final int WIRES = 1024;
+
+	@Param({"straight", "bent"})
+	public String shape;
+
+	@Param({"1024", "4096"})
+	public int image_size;
+
+	private final Object[] wires = new Object[WIRES];
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Throwable {
+		// bent: 180 deg, and only wires that are really bent (short ones are straight anyway)
+		Ini ini = Plugin.config(image_size, 10, 20, shape.equals("bent") ? 180 : 0);
+		ini.put("Parameters", "allow_outside", true);
+		Object params = Plugin.parameters(ini, false, 0);
+		Object random = (Object) Plugin.FOR_IMAGE.invokeExact(42L, 0, 0);
+		for (int i = 0; i < WIRES; i++){
+			wires[i] = (Object) Plugin.NEW_WIRE.invokeExact(params, random);
+		}
+	}
+
+	@Benchmark
+	public boolean isInPicture() throws Throwable {
+		Object wire = wires[next];
+		next = (next+1) & (WIRES-1);
+		return (boolean) Plugin.IS_IN_PICTURE.invokeExact(wire, (double) image_size);
+	}
+
+}
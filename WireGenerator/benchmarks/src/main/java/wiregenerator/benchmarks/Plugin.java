@@ -0,0 +1,136 @@
+package wiregenerator.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ini4j.Ini;
+
+import ij.process.ByteProcessor;
+
+/*
+ * The classes of the plugin are in the default package, which can't be imported from a named package
+ * (and JMH doesn't allow benchmarks in the default package). So the benchmarks call them through
+ * method handles, which are looked up once and typed to Object, so invokeExact() costs next to nothing.
+ */
+
+final class Plugin {
+
+	// Wire(GenerationParameters, WireRandom)
+	static final MethodHandle NEW_WIRE;
+	// WireRandom.forImage(long, int, int)
+	static final MethodHandle FOR_IMAGE;
+	// ProbabilityDistribution.sample(WireRandom)
+	static final MethodHandle SAMPLE;
+	// Wire.IsInPicture(double)
+	static final MethodHandle IS_IN_PICTURE;
+	// WireRasterizer.draw(Wire, ByteProcessor)
+	static final MethodHandle DRAW;
+	// Wire_Generator_.DrawPicture(GenerationParameters, int, int, int)
+	static final MethodHandle DRAW_PICTURE;
+	// ConnectedComponents.label(ByteProcessor, int, boolean)
+	static final MethodHandle LABEL;
+	// ConnectedComponents.label(BitCanvas, int, boolean)
+	static final MethodHandle LABEL_PACKED;
+	// BitCanvas.toByteProcessor()
+	static final MethodHandle TO_BYTE_PROCESSOR;
+	// GenerationParameters.fromIni(Ini, ProbabilityDistribution x3)
+	private static final MethodHandle FROM_INI;
+	// ProbabilityDistribution.parse(List<String>, String)
+	private static final MethodHandle PARSE;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			Class<?> parameters = Class.forName("GenerationParameters");
+			Class<?> random = Class.forName("WireRandom");
+			Class<?> distribution = Class.forName("ProbabilityDistribution");
+			Class<?> wire = Class.forName("Wire");
+
+			Constructor<?> c = wire.getConstructor(parameters, random);
+			NEW_WIRE = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class, Object.class, Object.class));
+			FOR_IMAGE = lookup.unreflect(random.getMethod("forImage", long.class, int.class, int.class))
+					.asType(MethodType.methodType(Object.class, long.class, int.class, int.class));
+			SAMPLE = lookup.unreflect(distribution.getMethod("sample", random))
+					.asType(MethodType.methodType(double.class, Object.class, Object.class));
+			Method in_picture = wire.getDeclaredMethod("IsInPicture", double.class);
+			in_picture.setAccessible(true);
+			IS_IN_PICTURE = lookup.unreflect(in_picture).asType(MethodType.methodType(boolean.class, Object.class, double.class));
+			DRAW = lookup.unreflect(Class.forName("WireRasterizer").getMethod("draw", wire, ByteProcessor.class))
+					.asType(MethodType.methodType(void.class, Object.class, ByteProcessor.class));
+			Method draw_picture = Class.forName("Wire_Generator_").getDeclaredMethod("DrawPicture", parameters, int.class, int.class, int.class);
+			draw_picture.setAccessible(true);
+			DRAW_PICTURE = lookup.unreflect(draw_picture).asType(MethodType.methodType(Object.class, Object.class, int.class, int.class, int.class));
+			LABEL = lookup.unreflect(Class.forName("ConnectedComponents").getMethod("label", ByteProcessor.class, int.class, boolean.class))
+					.asType(MethodType.methodType(Object.class, ByteProcessor.class, int.class, boolean.class));
+			Class<?> canvas = Class.forName("BitCanvas");
+			LABEL_PACKED = lookup.unreflect(Class.forName("ConnectedComponents").getMethod("label", canvas, int.class, boolean.class))
+					.asType(MethodType.methodType(Object.class, Object.class, int.class, boolean.class));
+			TO_BYTE_PROCESSOR = lookup.unreflect(canvas.getMethod("toByteProcessor"))
+					.asType(MethodType.methodType(ByteProcessor.class, Object.class));
+			FROM_INI = lookup.unreflect(parameters.getMethod("fromIni", Ini.class, distribution, distribution, distribution))
+					.asType(MethodType.methodType(Object.class, Ini.class, Object.class, Object.class, Object.class));
+			PARSE = lookup.unreflect(distribution.getMethod("parse", List.class, String.class))
+					.asType(MethodType.methodType(Object.class, List.class, String.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Plugin(){
+	}
+
+	static Ini config(int image_size, double min_width, double max_width, double max_opening_angle){
+
+		// the standard configfile of the plugin with the values of the benchmark
+		Ini ini = new Ini();
+		ini.put("Parameters", "min_length", 100);
+		ini.put("Parameters", "max_length", 300);
+		ini.put("Parameters", "min_width", min_width);
+		ini.put("Parameters", "max_width", max_width);
+		ini.put("Parameters", "max_opening_angle", max_opening_angle);
+		ini.put("Parameters", "image_size", image_size);
+		ini.put("Parameters", "n_start", 100);
+		ini.put("Parameters", "n_end", 100);
+		ini.put("Parameters", "n_step", 10);
+		ini.put("Parameters", "seed", 42);
+		ini.put("Parameters", "allow_outside", false);
+		ini.put("Parameters", "destinationpath", System.getProperty("java.io.tmpdir"));
+		return ini;
+	}
+
+	static Object parameters(Ini ini, boolean by_list, int list_points) throws Throwable {
+
+		// by_list: length, width and angle come from lists with list_points points
+		Object length = null, width = null, alpha = null;
+		if (by_list){
+			ini.put("Parameters", "bool_length_by_list", true);
+			ini.put("Parameters", "bool_width_by_list", true);
+			ini.put("Parameters", "bool_alpha_by_list", true);
+			double min_width = Double.parseDouble(ini.get("Parameters", "min_width"));
+			double max_width = Double.parseDouble(ini.get("Parameters", "max_width"));
+			double max_angle = Double.parseDouble(ini.get("Parameters", "max_opening_angle"));
+			length = distribution(100, 300, list_points);
+			width = distribution(min_width, Math.max(max_width, min_width+1), list_points);
+			alpha = distribution(0, Math.max(max_angle, 1), list_points);
+		}
+		return (Object) FROM_INI.invokeExact(ini, length, width, alpha);
+	}
+
+	static Object distribution(double min, double max, int points) throws Throwable {
+
+		// a hump between min and max, like the measured lists
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < points; i++){
+			double x = min + (max-min)*i/(points-1);
+			double p = 0.1 + Math.sin(Math.PI*i/(points-1));
+			lines.add(x + " , " + p);
+		}
+		return (Object) PARSE.invokeExact(lines, "benchmark");
+	}
+
+}
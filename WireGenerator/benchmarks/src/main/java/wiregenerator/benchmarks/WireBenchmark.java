@@ -0,0 +1,65 @@
+package wiregenerator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Creating single wires: sampling of length/width/angle (uniform or from lists)
+ * and the placement inside the image.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WireBenchmark {
+
+	@Param({"uniform", "list"})
+	public String sampling;
+
+	@Param({"1024", "4096"})
+	public int image_size;
+
+	@Param({"0", "180"})
+	public double max_opening_angle;
+
+	// points of the probability lists
+	@Param({"100"})
+	public int list_points;
+
+	private Object params;
+	private Object random;
+	private Object distribution;
+
+	@Setup
+	public void setup() throws Throwable {
+		params = Plugin.parameters(Plugin.config(image_size, 10, 20, max_opening_angle), sampling.equals("list"), list_points);
+		random = (Object) Plugin.FOR_IMAGE.invokeExact(42L, 0, 0);
+		distribution = Plugin.distribution(100, 300, list_points);
+	}
+
+	@Benchmark
+	public Object newWire() throws Throwable {
+		return (Object) Plugin.NEW_WIRE.invokeExact(params, random);
+	}
+
+	@Benchmark
+	public double sampleFromList() throws Throwable {
+		// what valueByList did for every value
+		return (double) Plugin.SAMPLE.invokeExact(distribution, random);
+	}
+
+}
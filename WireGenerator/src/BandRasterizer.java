@@ -0,0 +1,117 @@
+import java.util.Arrays;
+
+import ij.process.ByteProcessor;
+
+/*
+ * Draws all wires of one image with several threads.
+ *
+ * The image is cut into horizontal bands, every wire is put into all bands its bounding box
+ * (plus half the width) touches. Every band is one task of the WireScheduler and draws its wires
+ * clipped to its own rows, so no two tasks ever write the same pixel and nothing has to be locked.
+ * Wires are only white, so the order in which they are drawn doesn't matter: the image is
+ * the same as with WireRasterizer.draw() for every wire.
+ * The canvas can be a ByteProcessor or a BitCanvas (any SpanCanvas where different rows can be
+ * filled at the same time).
+ */
+
+public final class BandRasterizer {
+
+	private BandRasterizer(){
+	}
+
+	public static long draw(Wire[] wires, ByteProcessor picture, int n_bands){
+
+		final byte[] pixels = (byte[]) picture.getPixels();
+		final int width = picture.getWidth();
+		return draw(wires, new SpanCanvas(){
+			@Override
+			public void fillSpan(int y, int x0, int x1){
+				// Wires are always white
+				int offset = y*width;
+				Arrays.fill(pixels, offset+x0, offset+x1+1, (byte) 255);
+			}
+		}, width, picture.getHeight(), n_bands);
+	}
+
+	public static long draw(Wire[] wires, BitCanvas canvas, int n_bands){
+		return draw(wires, canvas, canvas.getWidth(), canvas.getHeight(), n_bands);
+	}
+
+	private static long draw(final Wire[] wires, final SpanCanvas canvas, final int width, int height, int n_bands){
+
+		// returns the number of pixels drawn (like WireRasterizer.draw())
+		n_bands = Math.max(1, Math.min(n_bands, height));
+		if (n_bands==1 || wires.length < 2){
+			final long[] drawn = new long[1];
+			SpanCanvas counting = new SpanCanvas(){
+				@Override
+				public void fillSpan(int y, int x0, int x1){
+					canvas.fillSpan(y, x0, x1);
+					drawn[0] += x1-x0+1;
+				}
+			};
+			for (Wire draht : wires) WireRasterizer.draw(draht, counting, 0, 0, width-1, height-1);
+			return drawn[0];
+		}
+
+		// rows of band b: from[b] .. from[b+1]-1
+		final int[] from = new int[n_bands+1];
+		for (int b = 0; b <= n_bands; b++){
+			from[b] = (int)((long)height*b/n_bands);
+		}
+
+		// first and last band of every wire, -1 if it is not in the picture at all
+		int[] first = new int[wires.length];
+		int[] last = new int[wires.length];
+		final int[] band_start = new int[n_bands+1];
+		for (int i = 0; i < wires.length; i++){
+			double[] bounds = wires[i].getBounds();
+			double radius = wires[i].getWidth()/2;
+			int y0 = (int) Math.max(0, Math.floor(bounds[1]-radius));
+			int y1 = (int) Math.min(height-1, Math.ceil(bounds[3]+radius));
+			if (y0 > y1){
+				first[i] = -1;
+				continue;
+			}
+			first[i] = band(from, y0);
+			last[i] = band(from, y1);
+			for (int b = first[i]; b <= last[i]; b++) band_start[b+1]++;
+		}
+		for (int b = 0; b < n_bands; b++) band_start[b+1] += band_start[b];
+		final int[] band_wires = new int[band_start[n_bands]];
+		int[] fill = Arrays.copyOf(band_start, n_bands);
+		for (int i = 0; i < wires.length; i++){
+			if (first[i] < 0) continue;
+			for (int b = first[i]; b <= last[i]; b++) band_wires[fill[b]++] = i;
+		}
+
+		// every band in its own task
+		final long[] drawn = new long[n_bands];
+		WireScheduler.split("drawing", n_bands, new WireScheduler.Task() {
+			@Override
+			public void run(final int b) {
+				SpanCanvas counting = new SpanCanvas(){
+					@Override
+					public void fillSpan(int y, int x0, int x1){
+						canvas.fillSpan(y, x0, x1);
+						drawn[b] += x1-x0+1;
+					}
+				};
+				for (int k = band_start[b]; k < band_start[b+1]; k++){
+					WireRasterizer.draw(wires[band_wires[k]], counting, 0, from[b], width-1, from[b+1]-1);
+				}
+			}
+		});
+
+		long sum = 0;
+		for (long d : drawn) sum += d;
+		return sum;
+	}
+
+	private static int band(int[] from, int y){
+		// the band with from[b] <= y < from[b+1] (not more bands than rows, so from is strictly increasing)
+		int b = Arrays.binarySearch(from, y);
+		return b < 0 ? -b-2 : Math.min(b, from.length-2);
+	}
+
+}
@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+import ij.process.ByteProcessor;
+
+/*
+ * Binary image with 1 bit per pixel, 64 pixels in one long (8 times less memory than a ByteProcessor).
+ * Pixel x of row y is bit (x & 63) of word y*words_per_row + x/64, the bits behind the last pixel
+ * of a row are always 0.
+ *
+ * The WireRasterizer draws into it (spans are filled word by word), ConnectedComponents labels
+ * the packed rows directly. It's only converted to a ByteProcessor to show or save it.
+ * Different rows can be drawn by different threads at the same time (BandRasterizer).
+ */
+
+public final class BitCanvas implements SpanCanvas {
+
+	private final int width;
+	private final int height;
+	private final int words_per_row;
+	private final long[] words;
+
+	public BitCanvas(int width, int height){
+		this.width = width;
+		this.height = height;
+		this.words_per_row = (width+63) >>> 6;
+		this.words = new long[words_per_row*height];
+	}
+
+	@Override
+	public void fillSpan(int y, int x0, int x1){
+
+		int row = y*words_per_row;
+		int w0 = x0 >>> 6;
+		int w1 = x1 >>> 6;
+		long first = -1L << (x0 & 63);			// x0 and everything to the right in its word
+		long last = -1L >>> (63 - (x1 & 63));	// x1 and everything to the left in its word
+		if (w0==w1){
+			words[row+w0] |= first & last;
+		} else {
+			words[row+w0] |= first;
+			Arrays.fill(words, row+w0+1, row+w1, -1L);
+			words[row+w1] |= last;
+		}
+	}
+
+	public boolean get(int x, int y){
+		return (words[y*words_per_row + (x >>> 6)] & (1L << (x & 63))) != 0;
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	int getWordsPerRow(){
+		return words_per_row;
+	}
+
+	long[] getWords(){
+		return words;
+	}
+
+	public long countPixels(){
+		// white pixels
+		long n = 0;
+		for (long w : words) n += Long.bitCount(w);
+		return n;
+	}
+
+	public double getCoverage(){
+		// white pixels / image area
+		return countPixels()/((double)width*height);
+	}
+
+	public ByteProcessor toByteProcessor(){
+
+		// 255 for every set bit
+		ByteProcessor bp = new ByteProcessor(width, height);
+		byte[] pixels = (byte[]) bp.getPixels();
+		for (int y = 0; y < height; y++){
+			int row = y*words_per_row;
+			for (int i = 0; i < words_per_row; i++){
+				long w = words[row+i];
+				while (w!=0){
+					int x = (i << 6) + Long.numberOfTrailingZeros(w);
+					pixels[y*width+x] = (byte) 255;
+					w &= w-1;
+				}
+			}
+		}
+		return bp;
+	}
+
+}
@@ -0,0 +1,291 @@
+import java.util.Arrays;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/*
+ * Connected component labeling for binary images (white = every pixel != 0, 8-connected,
+ * like "Find Connected Regions" with diagonal connections).
+ *
+ * Every row is stored as runs (start and end of the white parts), and overlapping runs of
+ * neighbouring rows are joined with a union-find. The image is cut into horizontal bands,
+ * each band is a task of the shared pool (WireScheduler) and the bands are joined at the seams afterwards.
+ * Only the runs are kept, so this needs a lot less memory than one label per pixel,
+ * and the label image is only created if it is wanted.
+ * A BitCanvas is labeled directly: the runs are found word by word in the packed rows.
+ */
+
+public final class ConnectedComponents {
+
+	private ConnectedComponents(){
+	}
+
+	public static LabelingResult label(ByteProcessor picture, int n_threads, boolean with_labels){
+		return label((byte[]) picture.getPixels(), picture.getWidth(), picture.getHeight(), n_threads, with_labels);
+	}
+
+	public static LabelingResult label(final byte[] pixels, final int width, final int height, int n_threads, boolean with_labels){
+		return label(new Source() {
+			@Override
+			public void scan(Band band) {
+				band.scan(pixels, width);
+			}
+		}, width, height, n_threads, with_labels);
+	}
+
+	public static LabelingResult label(final BitCanvas canvas, int n_threads, boolean with_labels){
+		return label(new Source() {
+			@Override
+			public void scan(Band band) {
+				band.scan(canvas.getWords(), canvas.getWordsPerRow(), canvas.getWidth());
+			}
+		}, canvas.getWidth(), canvas.getHeight(), n_threads, with_labels);
+	}
+
+	private interface Source {
+		// finds the runs of the rows of a band
+		void scan(Band band);
+	}
+
+	private static LabelingResult label(final Source source, final int width, final int height, int n_threads, boolean with_labels){
+
+		// not more bands than rows
+		int n_bands = Math.max(1, Math.min(n_threads, height));
+		final Band[] bands = new Band[n_bands];
+		for (int b = 0; b < n_bands; b++){
+			bands[b] = new Band((int)((long)height*b/n_bands), (int)((long)height*(b+1)/n_bands));
+		}
+
+		// label every band on its own
+		if (n_bands==1){
+			source.scan(bands[0]);
+		} else {
+			WireScheduler.split("labeling", n_bands, new WireScheduler.Task() {
+				@Override
+				public void run(int b) {
+					source.scan(bands[b]);
+				}
+			});
+		}
+
+		// put all runs in one union-find
+		int n_runs = 0;
+		for (int b = 0; b < n_bands; b++){
+			bands[b].offset = n_runs;
+			n_runs += bands[b].n;
+		}
+		int[] parent = new int[n_runs];
+		for (int b = 0; b < n_bands; b++){
+			Band band = bands[b];
+			for (int k = 0; k < band.n; k++){
+				parent[band.offset+k] = band.parent[k]+band.offset;
+			}
+		}
+
+		// join the bands at the seams: last row of band b-1 with first row of band b
+		for (int b = 1; b < n_bands; b++){
+			Band upper = bands[b-1];
+			Band lower = bands[b];
+			if (upper.to==upper.from || lower.to==lower.from) continue;
+			int up_first = upper.rowFirst(upper.to-1);
+			int up_last = upper.rowFirst(upper.to);
+			int low_first = lower.rowFirst(lower.from);
+			int low_last = lower.rowFirst(lower.from+1);
+			joinRows(parent, upper.start, upper.end, up_first, up_last, upper.offset, lower.start, lower.end, low_first, low_last, lower.offset);
+		}
+
+		// give every root a label number, roots are always the smallest index of their region
+		int[] label_of = new int[n_runs];
+		int count = 0;
+		for (int r = 0; r < n_runs; r++){
+			int root = find(parent, r);
+			label_of[r] = root==r ? ++count : label_of[root];
+		}
+
+		// areas and borders
+		int[] areas = new int[count];
+		byte[] borders = new byte[count];	// 1=top 2=bottom 4=left 8=right
+		for (int b = 0; b < n_bands; b++){
+			Band band = bands[b];
+			for (int y = band.from; y < band.to; y++){
+				for (int k = band.rowFirst(y); k < band.rowFirst(y+1); k++){
+					int l = label_of[band.offset+k]-1;
+					areas[l] += band.end[k]-band.start[k]+1;
+					if (y==0) borders[l] |= 1;
+					if (y==height-1) borders[l] |= 2;
+					if (band.start[k]==0) borders[l] |= 4;
+					if (band.end[k]==width-1) borders[l] |= 8;
+				}
+			}
+		}
+		boolean spanning = false;
+		for (int l = 0; l < count; l++){
+			if ((borders[l] & 3)==3 || (borders[l] & 12)==12){
+				spanning = true;
+				break;
+			}
+		}
+
+		ImageProcessor labels = null;
+		if (with_labels){
+			labels = createLabelImage(bands, label_of, width, height, count);
+		}
+		return new LabelingResult(count, areas, (long)width*height, spanning, labels);
+	}
+
+	private static ImageProcessor createLabelImage(Band[] bands, int[] label_of, int width, int height, int count){
+
+		// 16 bit if possible, otherwise 32 bit float (exact up to 2^24 labels)
+		ImageProcessor labels;
+		if (count < 65536){
+			ShortProcessor sp = new ShortProcessor(width, height);
+			short[] p = (short[]) sp.getPixels();
+			for (Band band : bands){
+				for (int y = band.from; y < band.to; y++){
+					for (int k = band.rowFirst(y); k < band.rowFirst(y+1); k++){
+						Arrays.fill(p, y*width+band.start[k], y*width+band.end[k]+1, (short) label_of[band.offset+k]);
+					}
+				}
+			}
+			labels = sp;
+		} else {
+			FloatProcessor fp = new FloatProcessor(width, height);
+			float[] p = (float[]) fp.getPixels();
+			for (Band band : bands){
+				for (int y = band.from; y < band.to; y++){
+					for (int k = band.rowFirst(y); k < band.rowFirst(y+1); k++){
+						Arrays.fill(p, y*width+band.start[k], y*width+band.end[k]+1, (float) label_of[band.offset+k]);
+					}
+				}
+			}
+			labels = fp;
+		}
+		labels.resetMinAndMax();
+		return labels;
+	}
+
+	static int find(int[] parent, int i){
+		// path halving
+		while (parent[i]!=i){
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	static void union(int[] parent, int a, int b){
+		// the smaller index is the root
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a < b){
+			parent[b] = a;
+		} else if (b < a){
+			parent[a] = b;
+		}
+	}
+
+	private static void joinRows(int[] parent, int[] up_start, int[] up_end, int up_first, int up_last, int up_offset, int[] low_start, int[] low_end, int low_first, int low_last, int low_offset){
+
+		// runs touch (8-connected) if they overlap or meet at a corner
+		int j = up_first;
+		for (int k = low_first; k < low_last; k++){
+			while (j < up_last && up_end[j]+1 < low_start[k]) j++;
+			for (int m = j; m < up_last && up_start[m] <= low_end[k]+1; m++){
+				union(parent, up_offset+m, low_offset+k);
+			}
+		}
+	}
+
+	private static final class Band {
+
+		final int from;		// first row
+		final int to;		// behind the last row
+		final int[] row_index;	// first run of every row (+ one behind the last row)
+		int[] start = new int[256];
+		int[] end = new int[256];
+		int[] parent = new int[256];
+		int n = 0;
+		int offset = 0;		// index of the first run in the global union-find
+
+		Band(int from, int to){
+			this.from = from;
+			this.to = to;
+			this.row_index = new int[to-from+1];
+		}
+
+		int rowFirst(int y){
+			return row_index[y-from];
+		}
+
+		void scan(byte[] pixels, int width){
+
+			for (int y = from; y < to; y++){
+				row_index[y-from] = n;
+				int offset_row = y*width;
+				int x = 0;
+				while (x < width){
+					while (x < width && pixels[offset_row+x]==0) x++;
+					if (x==width) break;
+					int s = x;
+					while (x < width && pixels[offset_row+x]!=0) x++;
+					add(s, x-1);
+				}
+				joinRow(y);
+			}
+			row_index[to-from] = n;
+		}
+
+		void scan(long[] words, int words_per_row, int width){
+
+			// the same with 64 pixels per word, empty and full words are skipped at once
+			for (int y = from; y < to; y++){
+				row_index[y-from] = n;
+				int row = y*words_per_row;
+				int x = 0;
+				while (x < width){
+					x = next(words, row, words_per_row, x, 0L);
+					if (x >= width) break;
+					int s = x;
+					x = Math.min(width, next(words, row, words_per_row, x, -1L));
+					add(s, x-1);
+				}
+				joinRow(y);
+			}
+			row_index[to-from] = n;
+		}
+
+		private static int next(long[] words, int row, int words_per_row, int x, long flip){
+
+			// first pixel >= x that is white (flip = 0) or black (flip = -1), words_per_row*64 if there is none
+			int i = x >>> 6;
+			long w = (words[row+i] ^ flip) & (-1L << (x & 63));
+			while (w==0){
+				if (++i==words_per_row) return words_per_row << 6;
+				w = words[row+i] ^ flip;
+			}
+			return (i << 6) + Long.numberOfTrailingZeros(w);
+		}
+
+		private void joinRow(int y){
+			// runs of row y with the runs of the row above
+			if (y > from){
+				joinRows(parent, start, end, row_index[y-from-1], row_index[y-from], 0, start, end, row_index[y-from], n, 0);
+			}
+		}
+
+		private void add(int s, int e){
+			if (n==start.length){
+				start = Arrays.copyOf(start, 2*n);
+				end = Arrays.copyOf(end, 2*n);
+				parent = Arrays.copyOf(parent, 2*n);
+			}
+			start[n] = s;
+			end[n] = e;
+			parent[n] = n;
+			n++;
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * This Class holds the statistics of all realizations of one number of wires (ensemble mode)
+ */
+
+public class EnsembleResult {
+
+	// the measured quantities
+	public static final int REGIONS = 0;
+	public static final int COVERAGE = 1;
+	public static final int PERCOLATION = 2;
+
+	private final int number;			// number of wires
+	private final int realizations;		// images with this number
+	private final double[] mean;
+	private final double[] std;			// sample standard deviation
+	private final double[] ci;			// half width of the 95% confidence interval of the mean
+
+	public EnsembleResult(int number, double[][] values){
+
+		// values[quantity][realization]
+		this.number = number;
+		this.realizations = values[0].length;
+		this.mean = new double[values.length];
+		this.std = new double[values.length];
+		this.ci = new double[values.length];
+		for (int q = 0; q < values.length; q++){
+			double sum = 0;
+			for (double v : values[q]) sum += v;
+			mean[q] = sum/realizations;
+			double sq = 0;
+			for (double v : values[q]) sq += (v-mean[q])*(v-mean[q]);
+			std[q] = realizations > 1 ? Math.sqrt(sq/(realizations-1)) : 0;
+			ci[q] = realizations > 1 ? tQuantile(realizations-1)*std[q]/Math.sqrt(realizations) : 0;
+		}
+	}
+
+	private static double tQuantile(int df){
+		// two sided 95% quantiles of Student's t distribution, normal distribution for many realizations
+		final double[] t = {12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+				2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+				2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+		if (df <= t.length) return t[df-1];
+		if (df <= 60) return 2.000;
+		if (df <= 120) return 1.980;
+		return 1.960;
+	}
+
+	public int getNumber(){
+		return number;
+	}
+
+	public int getRealizations(){
+		return realizations;
+	}
+
+	public double getMean(int quantity){
+		return mean[quantity];
+	}
+
+	public double getStd(int quantity){
+		return std[quantity];
+	}
+
+	public double getConfidence(int quantity){
+		return ci[quantity];
+	}
+
+}
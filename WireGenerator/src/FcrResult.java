@@ -0,0 +1,49 @@
+import ij.process.ImageProcessor;
+
+/*
+ * This Class holds the results of "Find Connected Regions" for one image
+ */
+
+public class FcrResult {
+
+	private final int number;			// number of wires in the image
+	private final int number_of_CRs;	// number of connected regions
+	private final double percolation;	// biggest region / area of all regions
+	private final double coverage;		// area of all regions / image area
+	private final boolean spanning;		// one region connects opposite borders
+	private final ImageProcessor regions;	// image of all regions (can be null)
+
+	public FcrResult(int number, int number_of_CRs, double percolation, double coverage, boolean spanning, ImageProcessor regions){
+		this.number = number;
+		this.number_of_CRs = number_of_CRs;
+		this.percolation = percolation;
+		this.coverage = coverage;
+		this.spanning = spanning;
+		this.regions = regions;
+	}
+
+	public int getNumber(){
+		return number;
+	}
+
+	public int getNumberOfCRs(){
+		return number_of_CRs;
+	}
+
+	public double getPercolation(){
+		return percolation;
+	}
+
+	public double getCoverage(){
+		return coverage;
+	}
+
+	public boolean isSpanning(){
+		return spanning;
+	}
+
+	public ImageProcessor getRegions(){
+		return regions;
+	}
+
+}
@@ -0,0 +1,180 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Collects the FCR results of all images of one run and writes them into one results file.
+ *
+ * The FCR threads only put their result in a queue (never waiting for the file), whoever gets the
+ * lock writes everything that is there. The rows are written in the order of the images (the image
+ * sequence, or the index given to add(), e.g. the replayed files): a row is written as soon as all
+ * images before it are written, the rest (sorted) when the writer is closed. Every image has its own row.
+ * The file is created new for every run with one header.
+ * If the file can't be written, the first error is kept and close() throws it as a WireTaskException
+ * of the stage "results" (the rows after it are lost, the run is reported as failed).
+ *
+ * Formats (results_format): txt = tab separated 00-FCR_results.txt (as before),
+ * csv = 00-FCR_results.csv, jsonl = 00-FCR_results.jsonl (one JSON object per row, no header)
+ */
+
+public class FcrResultsWriter implements Closeable {
+
+	private final GenerationParameters params;
+	private final String format;
+	private final String path;
+	private final int images;		// rows in order (index 0 .. images-1)
+	private final ConcurrentLinkedQueue<Row> queue = new ConcurrentLinkedQueue<Row>();
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// only used with the lock
+	private final TreeMap<Integer, FcrResult> pending = new TreeMap<Integer, FcrResult>();
+	private BufferedWriter writer;
+	private int next_image = 0;		// index in the image sequence of the next row
+	private IOException failure = null;	// first error, thrown by close()
+
+	public FcrResultsWriter(GenerationParameters params){
+		// rows in the order of the image sequence, see add(FcrResult)
+		this(params, params.getNumberOfImages());
+	}
+
+	public FcrResultsWriter(GenerationParameters params, int images){
+		// rows in the order of the index given to add(int, FcrResult)
+		this.params = params;
+		this.images = images;
+		this.format = params.getResultsFormat();
+		this.path = params.getDestinationPath() + "00-FCR_results." + format;
+		try {
+			writer = new BufferedWriter(new FileWriter(path));
+			if (!format.equals("jsonl")){
+				writer.write(header());
+				writer.newLine();
+			}
+			writer.flush();
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+	public String getPath(){
+		return path;
+	}
+
+	public void add(FcrResult result){
+		// the index is the place of its number in the image sequence (numbers outside of it: at the end, sorted)
+		int n = result.getNumber() - params.getNStart();
+		boolean in_sequence = n >= 0 && n % params.getNStep()==0 && n/params.getNStep() < images;
+		add(in_sequence ? n/params.getNStep() : images + result.getNumber(), result);
+	}
+
+	public void add(int index, FcrResult result){
+
+		queue.add(new Row(index, result));
+		// if another thread is writing, it takes our result too (or close() does)
+		if (lock.tryLock()){
+			try {
+				drain(false);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void close(){
+
+		lock.lock();
+		try {
+			drain(true);
+			if (writer!=null){
+				writer.close();
+				writer = null;
+			}
+		} catch (IOException e) {
+			failed(e);
+		} finally {
+			lock.unlock();
+		}
+		if (failure!=null){
+			throw new WireTaskException("results", next_image, new IOException("Could not write " + path + ": " + failure.getMessage(), failure));
+		}
+	}
+
+	private void failed(IOException e){
+		// only with the lock (or in the constructor), nothing is written after it
+		e.printStackTrace();
+		System.err.println(e.getMessage());
+		if (failure==null) failure = e;
+		if (writer!=null){
+			try {
+				writer.close();
+			} catch (IOException ignored) {
+				// the first error is the one that counts
+			}
+		}
+		writer = null;
+	}
+
+	private void drain(boolean all){
+
+		for (Row r = queue.poll(); r!=null; r = queue.poll()){
+			pending.put(r.index, r.result);
+		}
+		if (writer==null){
+			pending.clear();
+			return;
+		}
+		try {
+			// rows in the order of the sequence, missing images are only skipped at the end
+			while (next_image < images && pending.containsKey(next_image)){
+				writer.write(row(pending.remove(next_image)));
+				writer.newLine();
+				next_image++;
+			}
+			if (all){
+				for (Map.Entry<Integer, FcrResult> e : pending.entrySet()){
+					writer.write(row(e.getValue()));
+					writer.newLine();
+				}
+				pending.clear();
+			}
+			writer.flush();
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+	private String header(){
+		if (format.equals("csv")){
+			return "wires,regions,percolation,coverage,spanning";
+		}
+		return "#wires" + '\t'+ "#CR" + '\t'+ "perc."+ '\t'+ "cov.";
+	}
+
+	private String row(FcrResult r){
+		if (format.equals("csv")){
+			return r.getNumber() + "," + r.getNumberOfCRs() + "," + r.getPercolation() + "," + r.getCoverage() + "," + r.isSpanning();
+		}
+		if (format.equals("jsonl")){
+			return "{\"wires\":" + r.getNumber() + ",\"regions\":" + r.getNumberOfCRs() + ",\"percolation\":" + r.getPercolation()
+					+ ",\"coverage\":" + r.getCoverage() + ",\"spanning\":" + r.isSpanning() + "}";
+		}
+		return "" + r.getNumber() + '\t'+ r.getNumberOfCRs() + '\t'+ r.getPercolation()+ '\t'+ r.getCoverage();
+	}
+
+	private static final class Row {
+
+		final int index;
+		final FcrResult result;
+
+		Row(int index, FcrResult result){
+			this.index = index;
+			this.result = result;
+		}
+	}
+
+}
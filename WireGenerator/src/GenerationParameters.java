@@ -0,0 +1,421 @@
+import java.io.File;
+
+import org.ini4j.Ini;
+
+/*
+ * This Class holds every setting needed for the generation and evaluation of the wires.
+ * It is created once from the Ini (after the dialog) and checked for invalid values.
+ * The Object is immutable, so the generator, every Wire and all worker threads can share it
+ * without ever touching the Ini again.
+ */
+
+public final class GenerationParameters {
+
+	// biggest image in one Java array (ByteProcessor, label image)
+	public static final int MAX_IMAGE_SIZE = 46340;
+	// the nested sweep keeps the canvas and a region per pixel (5 bytes per pixel) for the whole sequence
+	public static final int MAX_NESTED_SWEEP_SIZE = 16384;
+
+	private final double min_length;
+	private final double max_length;
+	private final double min_width;
+	private final double max_width;
+	private final double max_opening_angle;	// [DEG]
+	private final int image_size;
+	private final int tile_size;			// > 0: tiled rendering straight to a BigTIFF file (see TiledRenderer)
+	private final int n_start;
+	private final int n_end;
+	private final int n_step;
+	private final String destinationpath;
+	private final boolean allow_outside;
+	private final boolean show_metrics;		// live summary of the run in the status bar
+	private final String results_format;	// FCR results file: txt, csv or jsonl
+	private final String wire_format;		// wire files: bin (WireCatalog), txt (wire-information) or both
+	private final String image_format;		// saved images: zip (tif in zip), tif, png or tif1 (1 bit per pixel)
+	private final int compression_level;	// deflate level for zip and png (0-9)
+	private final String placement;		// "rejection" or "analytic" (P1 only from positions where the wire fits)
+	private final boolean perform_fcr;
+	private final boolean save_fcr_images;
+	private final boolean perform_skeletonize;
+	private final boolean save_skeletonized_images;
+	private final boolean streaming_pipeline;
+	private final boolean virtual_stacks;		// result stacks are read from the saved files
+	private final boolean geometric_percolation;	// clusters from the wire geometry, no images
+	private final boolean nested_sweep;		// every image = previous image + n_step wires
+	private final int realizations_per_n;	// more than 1: ensemble mode, statistics instead of images
+	private final boolean threshold_search;	// search the critical number of wires between n_start and n_end
+	private final String threshold_criterion;	// "spanning" or "largest"
+	private final double threshold_target;	// spanning probability / largest cluster fraction at the threshold
+	private final int threshold_realizations;	// images per probed number of wires
+	private final int threshold_tolerance;	// stop if the interval is not wider (in wires)
+	private final long seed;				// master seed for all images
+	private final String replay_path;		// saved wire file or directory to draw again (empty: new wires)
+	private final double replay_scale;		// the replayed images are this many times bigger
+	private final double replay_width_scale;	// the replayed wires are this many times wider (on top of replay_scale)
+	private final int cache_size_mb;		// > 0: images and results are kept in destinationpath/00-cache (see WireCache)
+
+	// compiled probability distributions (null if not used)
+	private final ProbabilityDistribution length_distribution;
+	private final ProbabilityDistribution width_distribution;
+	private final ProbabilityDistribution alpha_distribution;
+
+	// filenames only differ in the number of wires
+	private final String filename_suffix;
+	private final String file_name;			// fixed name of the image files (replay, see WireReplay), empty: made from the parameters
+
+	private GenerationParameters(Ini ini, ProbabilityDistribution length_distribution, ProbabilityDistribution width_distribution, ProbabilityDistribution alpha_distribution){
+
+		this.min_length = getDouble(ini, "min_length", 500);
+		this.max_length = getDouble(ini, "max_length", 1000);
+		this.min_width = getDouble(ini, "min_width", 10);
+		this.max_width = getDouble(ini, "max_width", 20);
+		this.max_opening_angle = getDouble(ini, "max_opening_angle", 90);
+		this.image_size = (int) getDouble(ini, "image_size", 4096);
+		this.tile_size = (int) getDouble(ini, "tile_size", 0);
+		this.n_start = (int) getDouble(ini, "n_start", 100);
+		this.n_end = (int) getDouble(ini, "n_end", 100);
+		this.n_step = (int) getDouble(ini, "n_step", 10);
+		this.destinationpath = getString(ini, "destinationpath", "");
+		this.allow_outside = getBoolean(ini, "allow_outside", false);
+		this.show_metrics = getBoolean(ini, "show_metrics", false);
+		this.results_format = getString(ini, "results_format", "txt").trim().toLowerCase();
+		this.wire_format = getString(ini, "wire_format", "bin").trim().toLowerCase();
+		this.image_format = getString(ini, "image_format", "zip").trim().toLowerCase();
+		this.compression_level = (int) getDouble(ini, "compression_level", 6);
+		this.placement = getString(ini, "placement", "rejection").trim().toLowerCase();
+		this.perform_fcr = getBoolean(ini, "perform_fcr", false);
+		this.virtual_stacks = getBoolean(ini, "virtual_stacks", false);
+		// virtual stacks need the saved images of every stage
+		this.save_fcr_images = getBoolean(ini, "save_fcr_images", false) || virtual_stacks;
+		this.perform_skeletonize = getBoolean(ini, "perform_skeletonize", false);
+		this.save_skeletonized_images = getBoolean(ini, "save_skeletonized_images", false) || virtual_stacks;
+		this.streaming_pipeline = getBoolean(ini, "streaming_pipeline", false);
+		this.geometric_percolation = getBoolean(ini, "geometric_percolation", false);
+		this.nested_sweep = getBoolean(ini, "nested_sweep", false);
+		this.realizations_per_n = (int) getDouble(ini, "realizations_per_n", 1);
+		this.threshold_search = getBoolean(ini, "threshold_search", false);
+		this.threshold_criterion = getString(ini, "threshold_criterion", "spanning").trim().toLowerCase();
+		this.threshold_target = getDouble(ini, "threshold_target", 0.5);
+		this.threshold_realizations = (int) getDouble(ini, "threshold_realizations", 8);
+		this.threshold_tolerance = (int) getDouble(ini, "threshold_tolerance", n_step);
+		// negative seed means: new seed every run
+		long configured_seed = getLong(ini, "seed", -1);
+		this.seed = configured_seed < 0 ? WireRandom.newSeed() & Long.MAX_VALUE : configured_seed;
+		this.replay_path = getString(ini, "replay_path", "").trim();
+		this.replay_scale = getDouble(ini, "replay_scale", 1);
+		this.replay_width_scale = getDouble(ini, "replay_width_scale", 1);
+		this.cache_size_mb = (int) getDouble(ini, "cache_size_mb", 0);
+
+		this.length_distribution = getBoolean(ini, "bool_length_by_list", false) ? length_distribution : null;
+		this.width_distribution = getBoolean(ini, "bool_width_by_list", false) ? width_distribution : null;
+		this.alpha_distribution = getBoolean(ini, "bool_alpha_by_list", false) ? alpha_distribution : null;
+
+		this.filename_suffix = "_length-"+(int)min_length+"-"+(int)max_length+"_width-"+(int)min_width+"-"+(int)max_width+"_size-"+image_size;
+		this.file_name = getString(ini, "file_name", "").trim();
+	}
+
+	public static GenerationParameters fromIni(Ini ini, ProbabilityDistribution length_distribution, ProbabilityDistribution width_distribution, ProbabilityDistribution alpha_distribution){
+
+		GenerationParameters p = new GenerationParameters(ini, length_distribution, width_distribution, alpha_distribution);
+		p.validate(ini);
+		return p;
+	}
+
+	private void validate(Ini ini){
+
+		// check everything once, so the threads don't fail later
+		if (length_distribution==null){
+			check(min_length > 0 && min_length <= max_length, "Wire length: 0 < minimum <= maximum is needed");
+		} else {
+			check(length_distribution.getMin() > 0, "Wire length: values in the length list have to be positive");
+		}
+		if (width_distribution==null){
+			check(min_width > 0 && min_width <= max_width, "Wire width: 0 < minimum <= maximum is needed");
+		} else {
+			check(width_distribution.getMin() > 0, "Wire width: values in the width list have to be positive");
+		}
+		if (alpha_distribution==null){
+			check(max_opening_angle >= 0 && max_opening_angle <= 360, "Max opening angle has to be between 0 and 360");
+		} else {
+			check(alpha_distribution.getMin() >= 0 && alpha_distribution.getMax() <= 360, "Values in the angle list have to be between 0 and 360");
+		}
+		check(getBoolean(ini, "bool_length_by_list", false) == (length_distribution!=null), "Length list is enabled but was not loaded");
+		check(getBoolean(ini, "bool_width_by_list", false) == (width_distribution!=null), "Width list is enabled but was not loaded");
+		check(getBoolean(ini, "bool_alpha_by_list", false) == (alpha_distribution!=null), "Angle list is enabled but was not loaded");
+		check(image_size > 0, "Image size has to be positive");
+		check(tile_size==0 || (tile_size >= 16 && tile_size%16==0), "Tile size has to be 0 (no tiles) or a multiple of 16");
+		check(tile_size > 0 || image_size <= MAX_IMAGE_SIZE, "Images bigger than " + MAX_IMAGE_SIZE + " pixels need tiled rendering (tile_size)");
+		check(!nested_sweep || image_size <= MAX_NESTED_SWEEP_SIZE, "Nested sweep: images can't be bigger than " + MAX_NESTED_SWEEP_SIZE + " pixels");
+		if (tile_size > 0 && !geometric_percolation){
+			// the tiles are saved and dropped, there is never a whole image for the other stages
+			check(!perform_fcr && !perform_skeletonize && !virtual_stacks && !nested_sweep && realizations_per_n==1 && !threshold_search,
+				"Tiled rendering only saves the images (no FCR, skeletonize, virtual stacks, nested sweep, ensemble or threshold search)");
+		}
+		check(n_start > 0 && n_end >= n_start, "Image sequence: 0 < min. number of wires <= max. number of wires is needed");
+		check(n_step > 0, "Image sequence: stepsize has to be positive");
+		check(results_format.equals("txt") || results_format.equals("csv") || results_format.equals("jsonl"), "Results format has to be txt, csv or jsonl");
+		check(wire_format.equals("bin") || wire_format.equals("txt") || wire_format.equals("both"), "Wire format has to be bin, txt or both");
+		check(image_format.equals("zip") || image_format.equals("tif") || image_format.equals("png") || image_format.equals("tif1"), "Image format has to be zip, tif, png or tif1");
+		check(compression_level >= 0 && compression_level <= 9, "Compression level has to be between 0 and 9");
+		check(placement.equals("rejection") || placement.equals("analytic"), "Placement has to be rejection or analytic");
+		check(realizations_per_n > 0, "Realizations per number of wires have to be positive");
+		check(cache_size_mb >= 0, "Cache size has to be 0 (no cache) or positive");
+		check(file_name.isEmpty() || n_start==n_end, "A fixed file name is only possible for one image");
+		if (!replay_path.isEmpty()){
+			check(replay_scale > 0 && replay_width_scale > 0, "Replay: scale factors have to be positive");
+			File replay = new File(replay_path).getAbsoluteFile();
+			check(replay.exists(), "Replay: " + replay_path + " doesn't exist");
+			File replay_dir = replay.isDirectory() ? replay : replay.getParentFile();
+			check(!replay_dir.equals(new File(destinationpath).getAbsoluteFile()), "Replay: the path for output has to be another directory than the saved wires");
+			check(!threshold_search && realizations_per_n==1 && !geometric_percolation && !nested_sweep && tile_size==0,
+				"Replay draws the saved wires again (no threshold search, ensemble, geometric percolation, nested sweep or tiles)");
+		}
+		if (threshold_search){
+			check(threshold_criterion.equals("spanning") || threshold_criterion.equals("largest"), "Threshold search: criterion has to be spanning or largest");
+			check(threshold_target > 0 && threshold_target < 1, "Threshold search: target has to be between 0 and 1");
+			check(threshold_realizations > 0, "Threshold search: realizations have to be positive");
+			check(threshold_tolerance > 0, "Threshold search: tolerance has to be positive");
+		}
+	}
+
+	private static void check(boolean condition, String message){
+		if (!condition){
+			throw new IllegalArgumentException(message);
+		}
+	}
+
+	// Helpers for reading the Ini. Missing keys (older configfiles) get the default value
+	static double getDouble(Ini ini, String key, double standard){
+		String value = ini.get("Parameters", key);
+		if (value==null || value.trim().isEmpty()){
+			return standard;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e){
+			throw new IllegalArgumentException("Parameter " + key + " is not a number: " + value);
+		}
+	}
+
+	static long getLong(Ini ini, String key, long standard){
+		String value = ini.get("Parameters", key);
+		if (value==null || value.trim().isEmpty()){
+			return standard;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e){
+			// values from the dialog may be stored as "1234.0"
+			return (long) getDouble(ini, key, standard);
+		}
+	}
+
+	static boolean getBoolean(Ini ini, String key, boolean standard){
+		String value = ini.get("Parameters", key);
+		if (value==null || value.trim().isEmpty()){
+			return standard;
+		}
+		return Boolean.parseBoolean(value.trim());
+	}
+
+	static String getString(Ini ini, String key, String standard){
+		String value = ini.get("Parameters", key);
+		if (value==null){
+			return standard;
+		}
+		return value;
+	}
+
+	public String createFileName(int n){
+		if (!file_name.isEmpty()) return file_name;
+		return "wires_n-"+n+filename_suffix;
+	}
+
+	public int getNumberOfImages(){
+		return (n_end-n_start)/n_step + 1;
+	}
+
+	public int getNumberOfWires(int image_index){
+		// image_index starts with 0
+		return n_start + image_index*n_step;
+	}
+
+	public double getMinLength(){
+		return min_length;
+	}
+
+	public double getMaxLength(){
+		return max_length;
+	}
+
+	public double getMinWidth(){
+		return min_width;
+	}
+
+	public double getMaxWidth(){
+		return max_width;
+	}
+
+	public double getMaxOpeningAngle(){
+		return max_opening_angle;
+	}
+
+	public int getImageSize(){
+		return image_size;
+	}
+
+	public int getTileSize(){
+		return tile_size;
+	}
+
+	public boolean isTiled(){
+		return tile_size > 0;
+	}
+
+	public int getNStart(){
+		return n_start;
+	}
+
+	public int getNEnd(){
+		return n_end;
+	}
+
+	public int getNStep(){
+		return n_step;
+	}
+
+	public String getDestinationPath(){
+		return destinationpath;
+	}
+
+	public boolean isAllowOutside(){
+		return allow_outside;
+	}
+
+	public boolean isShowMetrics(){
+		return show_metrics;
+	}
+
+	public String getResultsFormat(){
+		return results_format;
+	}
+
+	public String getWireFormat(){
+		return wire_format;
+	}
+
+	public String getImageFormat(){
+		return image_format;
+	}
+
+	public int getCompressionLevel(){
+		return compression_level;
+	}
+
+	public boolean isAnalyticPlacement(){
+		return placement.equals("analytic");
+	}
+
+	public boolean isPerformFcr(){
+		return perform_fcr;
+	}
+
+	public boolean isSaveFcrImages(){
+		return save_fcr_images;
+	}
+
+	public boolean isPerformSkeletonize(){
+		return perform_skeletonize;
+	}
+
+	public boolean isSaveSkeletonizedImages(){
+		return save_skeletonized_images;
+	}
+
+	public boolean isStreamingPipeline(){
+		return streaming_pipeline;
+	}
+
+	public boolean isVirtualStacks(){
+		return virtual_stacks;
+	}
+
+	public boolean isGeometricPercolation(){
+		return geometric_percolation;
+	}
+
+	public boolean isNestedSweep(){
+		return nested_sweep;
+	}
+
+	public int getRealizationsPerN(){
+		return realizations_per_n;
+	}
+
+	public boolean isEnsemble(){
+		return realizations_per_n > 1;
+	}
+
+	public boolean isThresholdSearch(){
+		return threshold_search;
+	}
+
+	public boolean isThresholdBySpanning(){
+		// otherwise by the largest cluster fraction
+		return threshold_criterion.equals("spanning");
+	}
+
+	public double getThresholdTarget(){
+		return threshold_target;
+	}
+
+	public int getThresholdRealizations(){
+		return threshold_realizations;
+	}
+
+	public int getThresholdTolerance(){
+		return threshold_tolerance;
+	}
+
+	public long getSeed(){
+		return seed;
+	}
+
+	public boolean isReplay(){
+		return !replay_path.isEmpty();
+	}
+
+	public String getReplayPath(){
+		return replay_path;
+	}
+
+	public double getReplayScale(){
+		return replay_scale;
+	}
+
+	public double getReplayWidthScale(){
+		return replay_width_scale;
+	}
+
+	public boolean isCache(){
+		return cache_size_mb > 0;
+	}
+
+	public long getCacheSize(){
+		// in bytes
+		return cache_size_mb*(1L << 20);
+	}
+
+	public ProbabilityDistribution getLengthDistribution(){
+		return length_distribution;
+	}
+
+	public ProbabilityDistribution getWidthDistribution(){
+		return width_distribution;
+	}
+
+	public ProbabilityDistribution getAlphaDistribution(){
+		return alpha_distribution;
+	}
+
+}
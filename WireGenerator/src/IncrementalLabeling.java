@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+/*
+ * Connected regions of a canvas that only gets more white pixels (8-connected, like ConnectedComponents).
+ *
+ * Every white pixel has the node of its region, the nodes are a union-find which is kept for the whole
+ * sequence. A pixel without white neighbours gets a new node, all others take the node of their
+ * neighbours (and join the regions of them), so there are far less nodes than pixels.
+ * Number, areas and borders are kept per node (only valid for roots) and updated on the fly,
+ * so after drawing some more wires the FCR numbers are there without labeling the image again.
+ * Memory: 4 bytes per pixel (plus the canvas) and a small table of nodes.
+ * The WireRasterizer draws directly into it (it is a SpanCanvas), the pixels are the ones of the canvas.
+ */
+
+public final class IncrementalLabeling implements SpanCanvas {
+
+	private final byte[] pixels;
+	private final int width;
+	private final int height;
+	private final int[] nodes;		// node of every white pixel (not necessarily the root)
+
+	// the nodes, they grow when needed
+	private int[] parent = new int[1024];
+	private int[] area = new int[1024];			// only valid for roots
+	private byte[] borders = new byte[1024];	// only valid for roots: 1=top 2=bottom 4=left 8=right
+	private int n_nodes = 0;
+
+	private int count = 0;			// number of regions
+	private long area_sum = 0;		// white pixels
+	private int area_max = 0;		// biggest region
+	private boolean spanning = false;
+
+	public IncrementalLabeling(byte[] pixels, int width, int height){
+		// width*height has to fit into an int (see GenerationParameters)
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+		this.nodes = new int[width*height];
+		// pixels that are already white (all of them are black first, so only labeled pixels are white)
+		byte[] white = Arrays.copyOf(pixels, pixels.length);
+		Arrays.fill(pixels, (byte) 0);
+		for (int y = 0; y < height; y++){
+			for (int x = 0; x < width; x++){
+				if (white[y*width+x]!=0) fillSpan(y, x, x);
+			}
+		}
+	}
+
+	@Override
+	public void fillSpan(int y, int x0, int x1){
+
+		int row = y*width;
+		byte row_borders = (byte)((y==0 ? 1 : 0) | (y==height-1 ? 2 : 0));
+		for (int x = x0; x <= x1; x++){
+			int i = row+x;
+			if (pixels[i]!=0) continue;
+			pixels[i] = (byte) 255;
+			area_sum++;
+
+			// the regions of all white neighbours are joined (the ones of this span step by step)
+			int root = -1;
+			for (int ny = Math.max(0, y-1); ny <= Math.min(height-1, y+1); ny++){
+				for (int nx = Math.max(0, x-1); nx <= Math.min(width-1, x+1); nx++){
+					int j = ny*width+nx;
+					if (j==i || pixels[j]==0) continue;
+					int r = find(nodes[j]);
+					root = root < 0 ? r : union(root, r);
+				}
+			}
+			if (root < 0){
+				// a new region
+				root = newNode();
+				count++;
+			}
+			nodes[i] = root;
+			area[root]++;
+			borders[root] |= row_borders | (x==0 ? 4 : 0) | (x==width-1 ? 8 : 0);
+			area_max = Math.max(area_max, area[root]);
+			spanning |= isSpanning(borders[root]);
+		}
+	}
+
+	private int newNode(){
+		if (n_nodes==parent.length){
+			parent = Arrays.copyOf(parent, 2*n_nodes);
+			area = Arrays.copyOf(area, 2*n_nodes);
+			borders = Arrays.copyOf(borders, 2*n_nodes);
+		}
+		int node = n_nodes++;
+		parent[node] = node;
+		area[node] = 0;
+		borders[node] = 0;
+		return node;
+	}
+
+	private int find(int i){
+		// path halving
+		while (parent[i]!=i){
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private int union(int a, int b){
+		// two roots, the bigger region stays the root (returned)
+		if (a==b) return a;
+		if (area[a] < area[b]){
+			int t = a; a = b; b = t;
+		}
+		parent[b] = a;
+		area[a] += area[b];
+		borders[a] |= borders[b];
+		count--;
+		area_max = Math.max(area_max, area[a]);
+		spanning |= isSpanning(borders[a]);
+		return a;
+	}
+
+	private static boolean isSpanning(byte b){
+		return (b & 3)==3 || (b & 12)==12;
+	}
+
+	public int getCount(){
+		return count;
+	}
+
+	public long getAreaSum(){
+		return area_sum;
+	}
+
+	public int getAreaMax(){
+		return area_max;
+	}
+
+	public double getCoverage(){
+		// area of all regions / image area
+		return area_sum/((double)width*height);
+	}
+
+	public double getPercolation(){
+		// biggest region / area of all regions
+		return area_sum==0 ? 0 : area_max/(double)area_sum;
+	}
+
+	public boolean isSpanning(){
+		return spanning;
+	}
+
+	public byte[] copyPixels(){
+		return Arrays.copyOf(pixels, pixels.length);
+	}
+
+}
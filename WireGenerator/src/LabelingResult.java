@@ -0,0 +1,67 @@
+import ij.process.ImageProcessor;
+
+/*
+ * This Class holds what ConnectedComponents found in one binary image
+ */
+
+public class LabelingResult {
+
+	private final int count;			// number of connected regions
+	private final int[] areas;			// area of region 1..count (index 0..count-1)
+	private final long area_sum;		// white pixels
+	private final int area_max;			// biggest region
+	private final long image_area;
+	private final boolean spanning;		// one region touches top+bottom or left+right border
+	private final ImageProcessor labels;	// label image (null if not wanted)
+
+	public LabelingResult(int count, int[] areas, long image_area, boolean spanning, ImageProcessor labels){
+		this.count = count;
+		this.areas = areas;
+		this.image_area = image_area;
+		this.spanning = spanning;
+		this.labels = labels;
+		long sum = 0;
+		int max = 0;
+		for (int i = 0; i < areas.length; i++){
+			sum += areas[i];
+			max = Math.max(max, areas[i]);
+		}
+		this.area_sum = sum;
+		this.area_max = max;
+	}
+
+	public int getCount(){
+		return count;
+	}
+
+	public int[] getAreas(){
+		return areas;
+	}
+
+	public long getAreaSum(){
+		return area_sum;
+	}
+
+	public int getAreaMax(){
+		return area_max;
+	}
+
+	public double getCoverage(){
+		// area of all regions / image area
+		return area_sum/(double)image_area;
+	}
+
+	public double getPercolation(){
+		// biggest region / area of all regions
+		return area_sum==0 ? 0 : area_max/(double)area_sum;
+	}
+
+	public boolean isSpanning(){
+		return spanning;
+	}
+
+	public ImageProcessor getLabels(){
+		return labels;
+	}
+
+}
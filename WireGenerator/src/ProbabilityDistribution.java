@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * This Class represents a compiled probability distribution read from a list file.
+ * The file should look like: (without header)
+ * value , prop
+ * 5 , 0.3
+ * 10 , 0.3
+ * 20 , 0.4
+ *
+ * The density is linear interpolated between the given points (same as the old rejection sampling did).
+ * Everything is calculated once when the list is imported, so drawing a value is O(1):
+ * an alias table picks the section between two points and the inverse CDF of the trapezoid
+ * inside this section gives the value. No loops, no allocation, no rejection.
+ * The Object is immutable, so all threads can share it.
+ */
+
+public final class ProbabilityDistribution {
+
+	private final double[] values;		// x values of the list
+	private final double[] props;		// prop values of the list (not normalized)
+	private final double[] aliasProp;	// alias table: probability to keep section i
+	private final int[] alias;			// alias table: otherwise take this section
+	private final int sections;
+
+	private ProbabilityDistribution(double[] values, double[] props){
+
+		this.values = values;
+		this.props = props;
+		this.sections = values.length-1;
+
+		// mass of every section is the area of the trapezoid
+		double[] mass = new double[sections];
+		double mass_sum = 0;
+		for (int i = 0; i < sections; i++){
+			mass[i] = (props[i]+props[i+1])/2 * (values[i+1]-values[i]);
+			mass_sum += mass[i];
+		}
+		if (!(mass_sum > 0)){
+			throw new IllegalArgumentException("All probabilities are zero");
+		}
+
+		// build alias table (Vose)
+		this.aliasProp = new double[sections];
+		this.alias = new int[sections];
+		double[] scaled = new double[sections];
+		int[] small = new int[sections];
+		int[] large = new int[sections];
+		int n_small = 0;
+		int n_large = 0;
+		for (int i = 0; i < sections; i++){
+			scaled[i] = mass[i]/mass_sum*sections;
+			if (scaled[i] < 1){
+				small[n_small++] = i;
+			} else {
+				large[n_large++] = i;
+			}
+		}
+		while (n_small > 0 && n_large > 0){
+			int s = small[--n_small];
+			int l = large[--n_large];
+			aliasProp[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = (scaled[l]+scaled[s])-1;
+			if (scaled[l] < 1){
+				small[n_small++] = l;
+			} else {
+				large[n_large++] = l;
+			}
+		}
+		// whats left over is 1 (except rounding errors)
+		while (n_large > 0){
+			int l = large[--n_large];
+			aliasProp[l] = 1;
+			alias[l] = l;
+		}
+		while (n_small > 0){
+			int s = small[--n_small];
+			aliasProp[s] = 1;
+			alias[s] = s;
+		}
+	}
+
+	public static ProbabilityDistribution parse(List<String> liste, String source){
+
+		// reads and checks the lines of a list file
+		// empty lines are ignored, everything else has to be "value , prop"
+		// with increasing values and non negative probabilities
+		ArrayList<double[]> werte = new ArrayList<double[]>();
+		for (int i = 0; i < liste.size(); i++){
+			String zeile = liste.get(i).trim();
+			if (zeile.isEmpty()){
+				continue;
+			}
+			String[] felder = zeile.split(",");
+			if (felder.length != 2){
+				throw new IllegalArgumentException(source + ", line " + (i+1) + ": expected 'value , prop' but found '" + zeile + "'");
+			}
+			double value;
+			double prop;
+			try {
+				value = Double.parseDouble(felder[0].trim());
+				prop = Double.parseDouble(felder[1].trim());
+			} catch (NumberFormatException e){
+				throw new IllegalArgumentException(source + ", line " + (i+1) + ": not a number in '" + zeile + "'");
+			}
+			if (Double.isNaN(value) || Double.isInfinite(value) || Double.isNaN(prop) || Double.isInfinite(prop) || prop < 0){
+				throw new IllegalArgumentException(source + ", line " + (i+1) + ": invalid value or probability in '" + zeile + "'");
+			}
+			if (!werte.isEmpty() && value <= werte.get(werte.size()-1)[0]){
+				throw new IllegalArgumentException(source + ", line " + (i+1) + ": values have to be sorted ascending");
+			}
+			werte.add(new double[]{value, prop});
+		}
+		if (werte.size() < 2){
+			throw new IllegalArgumentException(source + ": at least two lines are needed");
+		}
+
+		double[] values = new double[werte.size()];
+		double[] props = new double[werte.size()];
+		for (int i = 0; i < werte.size(); i++){
+			values[i] = werte.get(i)[0];
+			props[i] = werte.get(i)[1];
+		}
+		try {
+			return new ProbabilityDistribution(values, props);
+		} catch (IllegalArgumentException e){
+			throw new IllegalArgumentException(source + ": " + e.getMessage());
+		}
+	}
+
+	public double sample(WireRandom random){
+		return sample(random.nextDouble(), random.nextDouble());
+	}
+
+	public double sample(double u1, double u2){
+
+		// u1 and u2 are uniform in [0,1)
+		// u1 picks the section by the alias table
+		double column = u1*sections;
+		int i = (int) column;
+		if (i >= sections){
+			i = sections-1;
+		}
+		if (column-i >= aliasProp[i]){
+			i = alias[i];
+		}
+
+		// u2 is transformed by the inverse CDF of the linear density inside the section
+		double y1 = props[i];
+		double y2 = props[i+1];
+		double t;
+		double denominator = y1 + Math.sqrt(y1*y1 + u2*(y2*y2-y1*y1));
+		if (denominator > 0){
+			t = u2*(y1+y2)/denominator;
+		} else {
+			t = u2;
+		}
+		return values[i] + t*(values[i+1]-values[i]);
+	}
+
+	public double getMin(){
+		return values[0];
+	}
+
+	public double getMax(){
+		return values[values.length-1];
+	}
+
+	@Override
+	public String toString(){
+		// the list (value , prop per point), e.g. for the key of the WireCache
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < values.length; i++){
+			s.append(values[i]).append(" , ").append(props[i]).append('\n');
+		}
+		return s.toString();
+	}
+
+}
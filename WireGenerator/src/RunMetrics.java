@@ -0,0 +1,285 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Timing and throughput of one run, for sizing cluster jobs and finding slow threads.
+ *
+ * Every stage (generation, skeletonize, fcr, ...) counts its images, wall time (first image started
+ * until last image done), CPU time and the busy time of every thread. The stages that make the wires
+ * (generation, replay, geometric) count wires, placement tries and drawn pixels through their Timer,
+ * the rates are per second of these stages. All stages count the bytes they saved.
+ * At the end of a run the report is written as 00-run_report.json into the destinationpath.
+ *
+ * There is one report per run: begin() starts a new one, all threads add to current().
+ *
+ * Parts of a stage that run on other threads (WireScheduler tasks, the deflate chunks of the
+ * SliceWriter) are charged to the stage that started them (charge()), with their CPU time and
+ * busy time on their thread. Time spent waiting for such parts (waiting()) is not busy time.
+ * Every Timer only counts what the Timers and parts inside it on the same thread haven't counted,
+ * so nothing is counted twice.
+ */
+
+public final class RunMetrics {
+
+	private static volatile RunMetrics current = new RunMetrics();
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	// stage of the innermost Timer on this thread (for charge())
+	private static final ThreadLocal<Stage> RUNNING = new ThreadLocal<Stage>();
+	// CPU and wall time of this thread already counted by inner Timers {cpu, wall}
+	private static final ThreadLocal<long[]> COUNTED = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[2];
+		}
+	};
+
+	private final long start = System.nanoTime();
+	private volatile long end = 0;
+	private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+
+	private final AtomicLong wires = new AtomicLong();
+	private final AtomicLong placement_tries = new AtomicLong();
+	private final AtomicLong pixels = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	public static RunMetrics begin(){
+		current = new RunMetrics();
+		return current;
+	}
+
+	public static RunMetrics current(){
+		return current;
+	}
+
+	public Timer start(String stage){
+		// one image (task) of the stage
+		return new Timer(this, stage(stage), true);
+	}
+
+	public static Charge charge(){
+		// the stage running on this thread, for its parts on other threads (null if there is none)
+		Stage stage = RUNNING.get();
+		return stage==null ? null : new Charge(stage);
+	}
+
+	public static Timer waiting(){
+		// the calling thread waits for other threads, this is not busy time of its stage
+		return new Timer(null, null, false);
+	}
+
+	private synchronized Stage stage(String name){
+		Stage s = stages.get(name);
+		if (s==null){
+			s = new Stage(name);
+			stages.put(name, s);
+		}
+		return s;
+	}
+
+
+	public void addFile(String path){
+		// size of a file that was just saved
+		bytes.addAndGet(new File(path).length());
+	}
+
+	public void addBytes(long n){
+		bytes.addAndGet(n);
+	}
+
+	public void finish(){
+		end = System.nanoTime();
+	}
+
+	public String summary(){
+
+		// one line for the status bar
+		double seconds = ((end==0 ? System.nanoTime() : end) - start)/1e9;
+		StringBuilder s = new StringBuilder();
+		s.append(String.format("%.1f s", seconds));
+		for (Stage stage : stageList()){
+			s.append(" | ").append(stage.name).append(": ").append(stage.tasks.get()).append(" images");
+		}
+		s.append(String.format(" | %.0f wires/s | %.1f MB written", wires.get()/Math.max(seconds, 1e-9), bytes.get()/1e6));
+		return s.toString();
+	}
+
+	public void write(String path){
+
+		// machine readable report (JSON)
+		double seconds = ((end==0 ? System.nanoTime() : end) - start)/1e9;
+		// wall time of the stages that made the wires (first started until last done)
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		for (Stage stage : stageList()){
+			if (!stage.producing) continue;
+			first = Math.min(first, stage.first.get());
+			last = Math.max(last, stage.last.get());
+		}
+		double producing_seconds = last > first ? (last-first)/1e9 : 0;
+
+		StringBuilder s = new StringBuilder("{\n");
+		s.append("  \"wall_seconds\": ").append(round(seconds)).append(",\n");
+		s.append("  \"wires\": ").append(wires.get()).append(",\n");
+		// no rates if no stage timed the wires
+		if (producing_seconds > 0) s.append("  \"wires_per_second\": ").append(round(wires.get()/producing_seconds)).append(",\n");
+		s.append("  \"placement_tries_per_wire\": ").append(round(placement_tries.get()/(double)Math.max(1, wires.get()))).append(",\n");
+		s.append("  \"pixels_drawn\": ").append(pixels.get()).append(",\n");
+		if (producing_seconds > 0) s.append("  \"pixels_per_second\": ").append(round(pixels.get()/producing_seconds)).append(",\n");
+		s.append("  \"bytes_written\": ").append(bytes.get()).append(",\n");
+		s.append("  \"stages\": [");
+		List<Stage> list = stageList();
+		for (int i = 0; i < list.size(); i++){
+			s.append(i==0 ? "\n" : ",\n");
+			list.get(i).append(s);
+		}
+		s.append("\n  ]\n}");
+
+		new File(path).delete();
+		Wire_Generator_.WriteToFile(path, s.toString());
+	}
+
+	private synchronized List<Stage> stageList(){
+		return new ArrayList<Stage>(stages.values());
+	}
+
+	private static double round(double value){
+		return Math.round(value*1000)/1000.0;
+	}
+
+	private static long cpuTime(){
+		// CPU time of the current thread, 0 if the JVM can't measure it
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	public static final class Charge {
+
+		private final Stage stage;
+
+		private Charge(Stage stage){
+			this.stage = stage;
+		}
+
+		public Timer start(){
+			// a part of the stage on the calling thread (not an image of its own)
+			return new Timer(null, stage, false);
+		}
+	}
+
+	public static final class Timer {
+
+		private final RunMetrics metrics;	// null for parts and waiting
+		private final Stage stage;			// null for waiting
+		private final boolean task;
+		private final Stage previous;
+		private final long wall = System.nanoTime();
+		private final long cpu = cpuTime();
+		private final long counted_cpu;
+		private final long counted_wall;
+
+		private Timer(RunMetrics metrics, Stage stage, boolean task){
+			this.metrics = metrics;
+			this.stage = stage;
+			this.task = task;
+			long[] counted = COUNTED.get();
+			this.counted_cpu = counted[0];
+			this.counted_wall = counted[1];
+			this.previous = RUNNING.get();
+			if (stage!=null) RUNNING.set(stage);
+			if (task) stage.started(wall);
+		}
+
+		public void addWires(long n, long tries){
+			// wires made by this stage (also after stop())
+			stage.producing = true;
+			metrics.wires.addAndGet(n);
+			metrics.placement_tries.addAndGet(tries);
+		}
+
+		public void addPixels(long n){
+			stage.producing = true;
+			metrics.pixels.addAndGet(n);
+		}
+
+		public void stop(){
+			// only what the inner Timers of this thread haven't counted
+			long now = System.nanoTime();
+			long[] counted = COUNTED.get();
+			long busy = Math.max(0, (now-wall) - (counted[1]-counted_wall));
+			long used = stage==null ? 0 : Math.max(0, (cpuTime()-cpu) - (counted[0]-counted_cpu));
+			counted[0] += used;
+			counted[1] += busy;
+			if (stage!=null){
+				RUNNING.set(previous);
+				stage.done(Thread.currentThread().getName(), busy, used, now, task);
+			}
+		}
+	}
+
+	private static final class Stage {
+
+		final String name;
+		final AtomicLong tasks = new AtomicLong();
+		final AtomicLong cpu = new AtomicLong();
+		final AtomicLong busy = new AtomicLong();
+		final AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+		final AtomicLong last = new AtomicLong(Long.MIN_VALUE);
+		final ConcurrentHashMap<String, AtomicLong> thread_busy = new ConcurrentHashMap<String, AtomicLong>();
+		volatile boolean producing = false;		// wires or pixels are counted by this stage
+
+		Stage(String name){
+			this.name = name;
+		}
+
+		void started(long time){
+			for (long f = first.get(); time < f && !first.compareAndSet(f, time); f = first.get());
+		}
+
+		void done(String thread, long wall, long cpu_time, long time, boolean task){
+			if (task){
+				tasks.incrementAndGet();
+				for (long l = last.get(); time > l && !last.compareAndSet(l, time); l = last.get());
+			}
+			busy.addAndGet(wall);
+			cpu.addAndGet(cpu_time);
+			AtomicLong t = thread_busy.get(thread);
+			if (t==null){
+				thread_busy.putIfAbsent(thread, new AtomicLong());
+				t = thread_busy.get(thread);
+			}
+			t.addAndGet(wall);
+		}
+
+		long wall(){
+			return last.get() > first.get() ? last.get()-first.get() : 0;
+		}
+
+		void append(StringBuilder s){
+			long wall = wall();
+			s.append("    {\"stage\": \"").append(name).append("\", \"images\": ").append(tasks.get());
+			s.append(", \"wall_seconds\": ").append(round(wall/1e9));
+			s.append(", \"cpu_seconds\": ").append(round(cpu.get()/1e9));
+			s.append(", \"busy_seconds\": ").append(round(busy.get()/1e9));
+			s.append(", \"images_per_second\": ").append(round(tasks.get()/Math.max(wall/1e9, 1e-9)));
+			// busy time of every thread / wall time of the stage
+			s.append(", \"thread_utilization\": {");
+			boolean first_thread = true;
+			for (Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(thread_busy).entrySet()){
+				if (!first_thread) s.append(", ");
+				first_thread = false;
+				s.append('"').append(e.getKey().replace("\"", "'")).append("\": ").append(round(e.getValue().get()/(double)Math.max(1, wall)));
+			}
+			s.append("}}");
+		}
+	}
+
+}
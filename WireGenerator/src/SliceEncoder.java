@@ -0,0 +1,535 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/*
+ * Writes one image in the file formats of image_format:
+ * zip  = tif in a zip file, like FileSaver.saveAsZip() (name.tif.zip)
+ * tif  = uncompressed tif
+ * png  = png with filter "none" (8 or 16 bit gray, 32 bit images are saved as tif)
+ * tif1 = tif with 1 bit per pixel for binary images (the wires and skeletons), others as tif
+ *
+ * zip and png are deflated in chunks of CHUNK_BYTES by the threads of the given pool: every chunk
+ * but the last ends with a sync flush, so the chunks together are one deflate stream (like pigz).
+ * The checksums of the chunks are combined (crc32_combine / adler32_combine of zlib).
+ * All files are little endian, ImageJ opens them all with File>Open.
+ */
+
+final class SliceEncoder {
+
+	// uncompressed bytes per deflate chunk
+	static final int CHUNK_BYTES = 256*1024;
+	// deflate looks back 32 KB, so every chunk gets that much of the data before it
+	private static final int DICTIONARY_BYTES = 32*1024;
+
+	private SliceEncoder(){
+	}
+
+	static String extension(String format, ImageProcessor ip){
+		if (format.equals("zip")) return ".tif.zip";
+		if (format.equals("png") && !(ip instanceof FloatProcessor)) return ".png";
+		return ".tif";
+	}
+
+	static void write(ImageProcessor ip, String format, int level, File file, ExecutorService pool) throws IOException {
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1<<16);
+		try {
+			if (format.equals("zip")){
+				Rows rows = tiffRows(ip, false);
+				writeZip(tiffHeader(ip, rows), rows, file.getName().substring(0, file.getName().length()-4), level, out, pool);
+			} else if (format.equals("png") && !(ip instanceof FloatProcessor)){
+				writePng(ip, level, out, pool);
+			} else {
+				Rows rows = tiffRows(ip, format.equals("tif1") && isBinary(ip));
+				out.write(tiffHeader(ip, rows));
+				byte[] row = new byte[rows.rowBytes()];
+				for (int y = 0; y < rows.height(); y++){
+					rows.get(y, row, 0);
+					out.write(row);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	// ---- rows of an image in the byte layout of a file ----
+
+	private static abstract class Rows {
+
+		final ImageProcessor ip;
+
+		Rows(ImageProcessor ip){
+			this.ip = ip;
+		}
+
+		int height(){
+			return ip.getHeight();
+		}
+
+		abstract int rowBytes();
+
+		abstract int bits();
+
+		// row y into dst at off
+		abstract void get(int y, byte[] dst, int off);
+	}
+
+	private static boolean isBinary(ImageProcessor ip){
+		if (!(ip instanceof ByteProcessor)) return false;
+		byte[] pixels = (byte[]) ip.getPixels();
+		for (byte b : pixels){
+			if (b!=0 && b!=(byte) 255) return false;
+		}
+		return true;
+	}
+
+	private static Rows tiffRows(ImageProcessor ip, boolean one_bit){
+
+		final int width = ip.getWidth();
+		if (one_bit){
+			// 8 pixels per byte, the first pixel in the highest bit, every row starts with a new byte
+			final byte[] pixels = (byte[]) ip.getPixels();
+			return new Rows(ip){
+				int rowBytes(){ return (width+7)/8; }
+				int bits(){ return 1; }
+				void get(int y, byte[] dst, int off){
+					int p = y*width;
+					for (int b = 0; b < rowBytes(); b++){
+						int v = 0;
+						for (int k = 0; k < 8; k++){
+							int x = b*8+k;
+							v = (v << 1) | (x < width && pixels[p+x]!=0 ? 1 : 0);
+						}
+						dst[off+b] = (byte) v;
+					}
+				}
+			};
+		}
+		if (ip instanceof ShortProcessor){
+			final short[] pixels = (short[]) ip.getPixels();
+			return new Rows(ip){
+				int rowBytes(){ return 2*width; }
+				int bits(){ return 16; }
+				void get(int y, byte[] dst, int off){
+					for (int x = 0, p = y*width; x < width; x++, p++){
+						dst[off++] = (byte) pixels[p];
+						dst[off++] = (byte) (pixels[p] >> 8);
+					}
+				}
+			};
+		}
+		if (ip instanceof FloatProcessor){
+			final float[] pixels = (float[]) ip.getPixels();
+			return new Rows(ip){
+				int rowBytes(){ return 4*width; }
+				int bits(){ return 32; }
+				void get(int y, byte[] dst, int off){
+					for (int x = 0, p = y*width; x < width; x++, p++){
+						int v = Float.floatToRawIntBits(pixels[p]);
+						dst[off++] = (byte) v;
+						dst[off++] = (byte) (v >> 8);
+						dst[off++] = (byte) (v >> 16);
+						dst[off++] = (byte) (v >> 24);
+					}
+				}
+			};
+		}
+		final byte[] pixels = (byte[]) ip.convertToByte(false).getPixels();
+		return new Rows(ip){
+			int rowBytes(){ return width; }
+			int bits(){ return 8; }
+			void get(int y, byte[] dst, int off){
+				System.arraycopy(pixels, y*width, dst, off, width);
+			}
+		};
+	}
+
+	private static byte[] tiffHeader(ImageProcessor ip, Rows rows) throws IOException {
+
+		// header and one IFD with a single strip, the pixels follow directly
+		long data = (long) rows.rowBytes()*rows.height();
+		int entries = 10;
+		int data_offset = 8 + 2 + entries*12 + 4;
+		if (data_offset + data > 0xFFFFFFFFL){
+			throw new IOException("Image is too big for a tif file (" + data + " bytes)");
+		}
+		Le h = new Le(data_offset);
+		h.u8('I'); h.u8('I'); h.u16(42); h.u32(8);
+		h.u16(entries);
+		h.entry(256, 4, ip.getWidth());					// ImageWidth
+		h.entry(257, 4, ip.getHeight());				// ImageLength
+		h.entry(258, 3, rows.bits());					// BitsPerSample
+		h.entry(259, 3, 1);								// Compression: none
+		h.entry(262, 3, 1);								// PhotometricInterpretation: BlackIsZero
+		h.entry(273, 4, data_offset);					// StripOffsets
+		h.entry(277, 3, 1);								// SamplesPerPixel
+		h.entry(278, 4, ip.getHeight());				// RowsPerStrip
+		h.entry(279, 4, data);							// StripByteCounts
+		h.entry(339, 3, rows.bits()==32 ? 3 : 1);		// SampleFormat: float or unsigned int
+		h.u32(0);										// no next IFD
+		return h.bytes;
+	}
+
+	private static final class Le {
+
+		// little endian bytes
+		final byte[] bytes;
+		int pos = 0;
+
+		Le(int size){
+			bytes = new byte[size];
+		}
+
+		void u8(int v){
+			bytes[pos++] = (byte) v;
+		}
+
+		void u16(int v){
+			u8(v); u8(v >> 8);
+		}
+
+		void u32(long v){
+			u16((int) v); u16((int) (v >> 16));
+		}
+
+		void entry(int tag, int type, long value){
+			// SHORT (3) values are left aligned in the 4 bytes
+			u16(tag); u16(type); u32(1);
+			if (type==3){
+				u16((int) value); u16(0);
+			} else {
+				u32(value);
+			}
+		}
+	}
+
+	// ---- zip ----
+
+	private static void writeZip(byte[] header, Rows rows, String name, int level, OutputStream out, ExecutorService pool) throws IOException {
+
+		long size = header.length + (long) rows.rowBytes()*rows.height();
+		if (size >= 0xFFFFFFFFL){
+			// too big for a zip entry without zip64, ZipOutputStream does that (one thread)
+			ZipOutputStream zos = new ZipOutputStream(out);
+			zos.setLevel(level);
+			zos.putNextEntry(new ZipEntry(name));
+			zos.write(header);
+			byte[] row = new byte[rows.rowBytes()];
+			for (int y = 0; y < rows.height(); y++){
+				rows.get(y, row, 0);
+				zos.write(row);
+			}
+			zos.closeEntry();
+			zos.finish();
+			return;
+		}
+
+		List<Chunk> chunks = deflate(header, rows, level, true, pool);
+		long crc = 0;
+		long compressed = 0;
+		for (Chunk c : chunks){
+			crc = crc32Combine(crc, c.checksum, c.length);
+			compressed += c.data.length;
+		}
+
+		byte[] name_bytes = name.getBytes("UTF-8");
+		Calendar now = Calendar.getInstance();
+		int time = (now.get(Calendar.HOUR_OF_DAY) << 11) | (now.get(Calendar.MINUTE) << 5) | (now.get(Calendar.SECOND) >> 1);
+		int date = ((now.get(Calendar.YEAR)-1980) << 9) | ((now.get(Calendar.MONTH)+1) << 5) | now.get(Calendar.DAY_OF_MONTH);
+
+		// local file header, data, central directory, end of central directory
+		Le local = new Le(30);
+		local.u32(0x04034b50L); local.u16(20); local.u16(0); local.u16(8);
+		local.u16(time); local.u16(date); local.u32(crc); local.u32(compressed); local.u32(size);
+		local.u16(name_bytes.length); local.u16(0);
+		out.write(local.bytes);
+		out.write(name_bytes);
+		for (Chunk c : chunks) out.write(c.data);
+
+		Le central = new Le(46);
+		central.u32(0x02014b50L); central.u16(20); central.u16(20); central.u16(0); central.u16(8);
+		central.u16(time); central.u16(date); central.u32(crc); central.u32(compressed); central.u32(size);
+		central.u16(name_bytes.length); central.u16(0); central.u16(0); central.u16(0); central.u16(0);
+		central.u32(0); central.u32(0);
+		out.write(central.bytes);
+		out.write(name_bytes);
+
+		long central_offset = 30 + name_bytes.length + compressed;
+		Le end = new Le(22);
+		end.u32(0x06054b50L); end.u16(0); end.u16(0); end.u16(1); end.u16(1);
+		end.u32(46 + name_bytes.length); end.u32(central_offset); end.u16(0);
+		out.write(end.bytes);
+	}
+
+	// ---- png ----
+
+	private static void writePng(ImageProcessor ip, int level, OutputStream out, ExecutorService pool) throws IOException {
+
+		final int width = ip.getWidth();
+		final boolean sixteen = ip instanceof ShortProcessor;
+		final Object pixels = sixteen ? ip.getPixels() : ip.convertToByte(false).getPixels();
+		// every row: filter type 0, then the pixels (big endian)
+		Rows rows = new Rows(ip){
+			int rowBytes(){ return 1 + (sixteen ? 2 : 1)*width; }
+			int bits(){ return sixteen ? 16 : 8; }
+			void get(int y, byte[] dst, int off){
+				dst[off++] = 0;
+				if (sixteen){
+					short[] s = (short[]) pixels;
+					for (int x = 0, p = y*width; x < width; x++, p++){
+						dst[off++] = (byte) (s[p] >> 8);
+						dst[off++] = (byte) s[p];
+					}
+				} else {
+					System.arraycopy((byte[]) pixels, y*width, dst, off, width);
+				}
+			}
+		};
+
+		out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+		Be ihdr = new Be(13);
+		ihdr.u32(width); ihdr.u32(ip.getHeight());
+		ihdr.u8(sixteen ? 16 : 8); ihdr.u8(0); ihdr.u8(0); ihdr.u8(0); ihdr.u8(0);	// gray, deflate, no filter, no interlace
+		pngChunk(out, "IHDR", ihdr.bytes);
+
+		// zlib stream in several IDAT chunks: header, the deflate chunks, adler32
+		int flags = level < 2 ? 0x01 : level < 6 ? 0x5e : level==6 ? 0x9c : 0xda;
+		pngChunk(out, "IDAT", new byte[]{0x78, (byte) flags});
+		List<Chunk> chunks = deflate(new byte[0], rows, level, false, pool);
+		long adler = 1;
+		for (Chunk c : chunks){
+			adler = adler32Combine(adler, c.checksum, c.length);
+			pngChunk(out, "IDAT", c.data);
+		}
+		Be trailer = new Be(4);
+		trailer.u32(adler);
+		pngChunk(out, "IDAT", trailer.bytes);
+		pngChunk(out, "IEND", new byte[0]);
+	}
+
+	private static void pngChunk(OutputStream out, String type, byte[] data) throws IOException {
+		Be length = new Be(4);
+		length.u32(data.length);
+		out.write(length.bytes);
+		byte[] type_bytes = type.getBytes("US-ASCII");
+		out.write(type_bytes);
+		out.write(data);
+		CRC32 crc = new CRC32();
+		crc.update(type_bytes);
+		crc.update(data);
+		Be check = new Be(4);
+		check.u32(crc.getValue());
+		out.write(check.bytes);
+	}
+
+	private static final class Be {
+
+		// big endian bytes
+		final byte[] bytes;
+		int pos = 0;
+
+		Be(int size){
+			bytes = new byte[size];
+		}
+
+		void u8(int v){
+			bytes[pos++] = (byte) v;
+		}
+
+		void u32(long v){
+			u8((int) (v >> 24)); u8((int) (v >> 16)); u8((int) (v >> 8)); u8((int) v);
+		}
+	}
+
+	// ---- parallel deflate ----
+
+	private static final class Chunk {
+
+		byte[] data;		// deflated
+		long length;		// uncompressed bytes
+		long checksum;		// crc32 or adler32 of the uncompressed bytes
+	}
+
+	private static List<Chunk> deflate(final byte[] prefix, final Rows rows, final int level, final boolean crc, ExecutorService pool) throws IOException {
+
+		// prefix and all rows as one raw deflate stream, cut into chunks of whole rows
+		final int rows_per_chunk = Math.max(1, CHUNK_BYTES/rows.rowBytes());
+		final int n = Math.max(1, (rows.height()+rows_per_chunk-1)/rows_per_chunk);
+		// the chunks are charged to the stage of the calling thread (writing)
+		final RunMetrics.Charge charge = RunMetrics.charge();
+		List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>(n);
+		for (int k = 0; k < n; k++){
+			final int y0 = k*rows_per_chunk;
+			final int y1 = Math.min(rows.height(), y0+rows_per_chunk);
+			final boolean first = k==0;
+			final boolean last = k==n-1;
+			tasks.add(new Callable<Chunk>() {
+				@Override
+				public Chunk call() {
+					RunMetrics.Timer timer = charge==null ? null : charge.start();
+					try {
+						return deflateRows(first ? prefix : null, rows, y0, y1, level, crc, last);
+					} finally {
+						if (timer!=null) timer.stop();
+					}
+				}
+			});
+		}
+
+		List<Chunk> chunks = new ArrayList<Chunk>(n);
+		if (n==1 || pool==null){
+			for (Callable<Chunk> task : tasks){
+				try {
+					chunks.add(task.call());
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+			}
+			return chunks;
+		}
+		RunMetrics.Timer waiting = RunMetrics.waiting();
+		try {
+			for (Future<Chunk> f : pool.invokeAll(tasks)){
+				chunks.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while compressing", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			waiting.stop();
+		}
+		return chunks;
+	}
+
+	private static Chunk deflateRows(byte[] prefix, Rows rows, int y0, int y1, int level, boolean crc, boolean last){
+
+		int row_bytes = rows.rowBytes();
+		int offset = prefix==null ? 0 : prefix.length;
+		byte[] raw = new byte[offset + (y1-y0)*row_bytes];
+		if (prefix!=null) System.arraycopy(prefix, 0, raw, 0, offset);
+		for (int y = y0; y < y1; y++){
+			rows.get(y, raw, offset + (y-y0)*row_bytes);
+		}
+
+		Deflater deflater = new Deflater(level, true);
+		if (y0 > 0){
+			// the end of the rows before, so the matches can reach back into the previous chunk
+			int dict_rows = Math.min(y0, (DICTIONARY_BYTES+row_bytes-1)/row_bytes);
+			byte[] dict = new byte[dict_rows*row_bytes];
+			for (int y = y0-dict_rows; y < y0; y++){
+				rows.get(y, dict, (y-y0+dict_rows)*row_bytes);
+			}
+			int start = Math.max(0, dict.length-DICTIONARY_BYTES);
+			deflater.setDictionary(dict, start, dict.length-start);
+		}
+		deflater.setInput(raw);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length/4 + 64);
+		byte[] buffer = new byte[1<<16];
+		if (last){
+			deflater.finish();
+			while (!deflater.finished()){
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+		} else {
+			// ends on a byte boundary without the final block, the next chunk goes on from here
+			int len;
+			do {
+				len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+				out.write(buffer, 0, len);
+			} while (len==buffer.length);
+		}
+		deflater.end();
+
+		Checksum sum = crc ? new CRC32() : new Adler32();
+		sum.update(raw, 0, raw.length);
+		Chunk c = new Chunk();
+		c.data = out.toByteArray();
+		c.length = raw.length;
+		c.checksum = sum.getValue();
+		return c;
+	}
+
+	// ---- checksums of two parts in a row (from zlib) ----
+
+	static long crc32Combine(long crc1, long crc2, long len2){
+
+		if (len2 <= 0) return crc1;
+		long[] even = new long[32];
+		long[] odd = new long[32];
+		// operator for one zero bit
+		odd[0] = 0xedb88320L;
+		long row = 1;
+		for (int n = 1; n < 32; n++){
+			odd[n] = row;
+			row <<= 1;
+		}
+		gf2MatrixSquare(even, odd);		// two zero bits
+		gf2MatrixSquare(odd, even);		// four zero bits
+		// apply len2 zero bytes to crc1
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((len2 & 1)!=0) crc1 = gf2MatrixTimes(even, crc1);
+			len2 >>= 1;
+			if (len2==0) break;
+			gf2MatrixSquare(odd, even);
+			if ((len2 & 1)!=0) crc1 = gf2MatrixTimes(odd, crc1);
+			len2 >>= 1;
+		} while (len2!=0);
+		return crc1 ^ crc2;
+	}
+
+	private static long gf2MatrixTimes(long[] mat, long vec){
+		long sum = 0;
+		for (int i = 0; vec!=0; i++, vec >>>= 1){
+			if ((vec & 1)!=0) sum ^= mat[i];
+		}
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] mat){
+		for (int n = 0; n < 32; n++){
+			square[n] = gf2MatrixTimes(mat, mat[n]);
+		}
+	}
+
+	static long adler32Combine(long adler1, long adler2, long len2){
+
+		final long BASE = 65521;
+		long rem = len2 % BASE;
+		long sum1 = adler1 & 0xffff;
+		long sum2 = (rem*sum1) % BASE;
+		sum1 += (adler2 & 0xffff) + BASE - 1;
+		sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + BASE - rem;
+		if (sum1 >= BASE) sum1 -= BASE;
+		if (sum1 >= BASE) sum1 -= BASE;
+		if (sum2 >= (BASE << 1)) sum2 -= (BASE << 1);
+		if (sum2 >= BASE) sum2 -= BASE;
+		return (sum2 << 16) | sum1;
+	}
+
+}
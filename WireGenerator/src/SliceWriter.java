@@ -0,0 +1,175 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import ij.Prefs;
+import ij.process.ImageProcessor;
+
+/*
+ * Saves the images of all stages in the background, so the threads that create the images
+ * don't wait for the compression and the disk.
+ *
+ * save() only puts the image in a small queue (it waits if the queue is full, so there are never
+ * many unsaved images in memory), one writer thread encodes and writes them (see SliceEncoder).
+ * The compression of a big image is split into chunks which are done by a pool of its own,
+ * so the writer never waits for the image tasks of the WireScheduler and the other way round.
+ * The image must not be changed after save(). A BitCanvas is converted to 8 bit by the writer thread.
+ * With a copy, the written file is also put into the WireCache.
+ *
+ * flush() waits until everything is on disk: before the saved files are read again
+ * (virtual stacks) and at the end of a run. If an image could not be saved (disk full, no permission),
+ * flush() throws the first of these errors as a WireTaskException of the stage "writing".
+ */
+
+public final class SliceWriter {
+
+	private static final Object lock = new Object();
+	private static BlockingQueue<Job> queue = null;
+	private static ForkJoinPool pool = null;
+	private static int pending = 0;		// saved, but not on disk yet
+	private static int saved = 0;		// images since the last flush (index of the next one)
+	private static WireTaskException failure = null;	// first error since the last flush
+
+	private SliceWriter(){
+	}
+
+	public static void save(GenerationParameters params, ImageProcessor ip, String base){
+		// base: path and filename without the extension
+		String format = params.getImageFormat();
+		put(new Job(ip, new File(base + SliceEncoder.extension(format, ip)), format, params.getCompressionLevel(), null, null));
+	}
+
+	public static void save(GenerationParameters params, BitCanvas canvas, String base){
+		save(params, canvas, base, null);
+	}
+
+	public static void save(GenerationParameters params, BitCanvas canvas, String base, File copy){
+		// copy: where the file goes in the WireCache (null: nowhere)
+		String format = params.getImageFormat();
+		put(new Job(canvas, new File(base + SliceEncoder.extension(format, null)), format, params.getCompressionLevel(), copy, params));
+	}
+
+	private static void put(Job job){
+
+		BlockingQueue<Job> q;
+		synchronized (lock){
+			q = queue();
+			pending++;
+			job.index = saved++;
+		}
+		try {
+			q.put(job);
+		} catch (InterruptedException e) {
+			// save it right here
+			Thread.currentThread().interrupt();
+			write(job);
+		}
+	}
+
+	public static String path(GenerationParameters params, String base){
+
+		// the file save() writes for a wires/skeleton/FCR image (32 bit FCR images can't be png)
+		String format = params.getImageFormat();
+		if (format.equals("png") && !new File(base + ".png").exists()) return base + ".tif";
+		return base + SliceEncoder.extension(format, null);
+	}
+
+	public static void flush(){
+
+		WireTaskException e;
+		synchronized (lock){
+			while (pending > 0){
+				try {
+					lock.wait();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			// reported once, the next run starts without it
+			e = failure;
+			failure = null;
+			saved = 0;
+		}
+		if (e!=null) throw e;
+	}
+
+	private static BlockingQueue<Job> queue(){
+
+		// queue and writer thread are started with the first image
+		if (queue==null){
+			int n = Math.max(1, Prefs.getThreads());
+			queue = new ArrayBlockingQueue<Job>(Math.max(2, n));
+			pool = new ForkJoinPool(n);
+			final BlockingQueue<Job> q = queue;
+			Thread writer = new Thread("SliceWriter") {
+				@Override
+				public void run() {
+					while (true){
+						try {
+							write(q.take());
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			};
+			writer.setDaemon(true);
+			writer.start();
+		}
+		return queue;
+	}
+
+	private static void write(Job job){
+
+		RunMetrics.Timer timer = RunMetrics.current().start("writing");
+		try {
+			ImageProcessor ip = job.image instanceof BitCanvas ? ((BitCanvas) job.image).toByteProcessor() : (ImageProcessor) job.image;
+			SliceEncoder.write(ip, job.format, job.level, job.file, pool);
+			RunMetrics.current().addFile(job.file.getPath());
+			if (job.copy!=null) WireCache.storeFile(job.params, job.file, job.copy);
+		} catch (IOException e) {
+			// the image is lost, the run goes on until the next flush()
+			failed(job, new IOException("Could not save " + job.file + ": " + e.getMessage(), e));
+		} catch (RuntimeException e) {
+			failed(job, new IOException("Could not save " + job.file + ": " + e, e));
+		} finally {
+			timer.stop();
+			synchronized (lock){
+				pending--;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private static void failed(Job job, IOException e){
+		e.printStackTrace();
+		System.err.println(e.getMessage());
+		synchronized (lock){
+			if (failure==null) failure = new WireTaskException("writing", job.index, e);
+		}
+	}
+
+	private static final class Job {
+
+		final Object image;		// ImageProcessor or BitCanvas
+		final File file;
+		final String format;
+		final int level;
+		final File copy;
+		final GenerationParameters params;
+		int index;
+
+		Job(Object image, File file, String format, int level, File copy, GenerationParameters params){
+			this.image = image;
+			this.file = file;
+			this.format = format;
+			this.level = level;
+			this.copy = copy;
+			this.params = params;
+		}
+	}
+
+}
@@ -0,0 +1,12 @@
+/*
+ * Anything the WireRasterizer can draw into.
+ * The rasterizer only hands over horizontal runs of white pixels,
+ * already clipped to the region it was asked to draw.
+ */
+
+public interface SpanCanvas {
+
+	// set the pixels x0..x1 (both inclusive) of row y to white
+	public void fillSpan(int y, int x0, int x1);
+
+}
@@ -0,0 +1,106 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Writes the wires of one image in the tab separated "_wire-information.txt" layout
+ * (same columns and number format as Wire.toString()).
+ * The file stays open for the whole image, the lines are formatted into a byte buffer
+ * without creating Strings and the buffer is only written when it's full or the sink is closed.
+ * Not thread safe: every image (thread) has its own sink.
+ */
+
+public final class TextWireSink implements WireSink {
+
+	public static final String HEADER = "Length"+'\t'+"Width"+'\t'+"x1"+'\t'+"y1"+'\t'+"x2"+'\t'+"y2"+'\t'+"mx"+'\t'+"my"+'\t'+"r"+'\t'+"alpha"+'\t'+"phi";
+
+	private static final int BUFFER_SIZE = 1<<16;
+	private static final int MAX_LINE = 256;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private final byte[] digits = new byte[20];
+	private int pos = 0;
+
+	public TextWireSink(String path) throws IOException {
+		// a new file is started for every image (the header is only written once)
+		this.out = new FileOutputStream(path);
+		for (int i = 0; i < HEADER.length(); i++){
+			buffer[pos++] = (byte) HEADER.charAt(i);
+		}
+		buffer[pos++] = '\n';
+	}
+
+	@Override
+	public void write(Wire draht) throws IOException {
+
+		if (pos + MAX_LINE > BUFFER_SIZE){
+			flushBuffer();
+		}
+		appendLong((long) draht.getLength());
+		buffer[pos++] = '\t';
+		appendLong((long) draht.getWidth());
+		buffer[pos++] = '\t';
+		appendLong(draht.getX1());
+		buffer[pos++] = '\t';
+		appendLong(draht.getY1());
+		buffer[pos++] = '\t';
+		appendLong(draht.getX2());
+		buffer[pos++] = '\t';
+		appendLong(draht.getY2());
+		buffer[pos++] = '\t';
+		appendLong(draht.getmx());
+		buffer[pos++] = '\t';
+		appendLong(draht.getmy());
+		buffer[pos++] = '\t';
+		appendLong((long) draht.getR());
+		buffer[pos++] = '\t';
+		appendDegree(draht.getAlpha());
+		buffer[pos++] = '\t';
+		appendDegree(draht.getPhi());
+		buffer[pos++] = '\n';
+	}
+
+	private void appendDegree(double rad){
+		// same rounding as Wire.toString(): one digit after the point
+		int tenths = (int)((rad*180/Math.PI+0.05)*10);
+		if (tenths < 0){
+			buffer[pos++] = '-';
+			tenths = -tenths;
+		}
+		appendLong(tenths/10);
+		buffer[pos++] = '.';
+		buffer[pos++] = (byte) ('0' + tenths%10);
+	}
+
+	private void appendLong(long value){
+		if (value < 0){
+			buffer[pos++] = '-';
+		} else {
+			value = -value;		// work with negative numbers, so Long.MIN_VALUE works too
+		}
+		int n = 0;
+		do {
+			digits[n++] = (byte) ('0' - (value % 10));
+			value /= 10;
+		} while (value != 0);
+		while (n > 0){
+			buffer[pos++] = digits[--n];
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, pos);
+		pos = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			out.close();
+		}
+	}
+
+}
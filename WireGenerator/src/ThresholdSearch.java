@@ -0,0 +1,142 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Search for the critical number of wires instead of the linear image sequence.
+ *
+ * Between n_start and n_end the number of wires is bisected until the interval is not wider than
+ * threshold_tolerance. For every probed number threshold_realizations images are created (each with
+ * its own random stream) and labeled, nothing is saved. The measure of a probe is either the spanning
+ * probability (share of images with a spanning region) or the mean largest region fraction.
+ * With geometric_percolation the wire networks are analyzed instead of the images.
+ *
+ * The probes are written to 00-threshold_search.txt, sorted by the number of wires.
+ */
+
+public class ThresholdSearch {
+
+	private final GenerationParameters params;
+	private final int n_threads;
+	private final List<Probe> probes = new ArrayList<Probe>();
+
+	public ThresholdSearch(GenerationParameters params, int n_threads){
+		this.params = params;
+		this.n_threads = Math.max(1, n_threads);
+	}
+
+	public double run(){
+
+		double target = params.getThresholdTarget();
+		int lo = params.getNStart();
+		int hi = params.getNEnd();
+
+		// the threshold has to be in between
+		Probe low = probe(lo);
+		Probe high = probe(hi);
+		double threshold;
+		if (low.value >= target){
+			System.out.println("Threshold search: already reached with "+lo+" wires");
+			threshold = lo;
+		} else if (high.value < target){
+			System.out.println("Threshold search: not reached with "+hi+" wires");
+			threshold = Double.NaN;
+		} else {
+			while (hi-lo > params.getThresholdTolerance()){
+				int mid = lo + (hi-lo)/2;
+				if (probe(mid).value >= target){
+					hi = mid;
+				} else {
+					lo = mid;
+				}
+			}
+			threshold = (lo+hi)/2.0;
+		}
+		System.out.println("Threshold search: critical number of wires " + threshold + " (" + lo + " - " + hi + ")");
+		writeResults(threshold, lo, hi);
+		return threshold;
+	}
+
+	public double[] getProbedNumbers(){
+		double[] n = new double[probes.size()];
+		for (int i = 0; i < n.length; i++) n[i] = probes.get(i).number;
+		return n;
+	}
+
+	public double[] getProbedValues(){
+		double[] v = new double[probes.size()];
+		for (int i = 0; i < v.length; i++) v[i] = probes.get(i).value;
+		return v;
+	}
+
+	private Probe probe(final int number){
+
+		// all realizations of one number in parallel
+		final int realizations = params.getThresholdRealizations();
+		final double[] values = new double[realizations];
+		// if there are less images than threads, drawing and labeling of each image are split up too
+		final int labeling_threads = Math.max(1, n_threads/realizations);
+
+		WireScheduler.run("threshold search "+number+" wires", realizations, new WireScheduler.Task() {
+			@Override
+			public void run(int r) {
+				RunMetrics.Timer timer = RunMetrics.current().start("threshold search");
+				values[r] = measure(number, r, labeling_threads);
+				timer.stop();
+			}
+		});
+
+		double sum = 0;
+		for (int r = 0; r < realizations; r++) sum += values[r];
+		Probe p = new Probe(number, sum/realizations);
+		probes.add(p);
+		System.out.println("Threshold search: "+number+" wires -> "+p.value);
+		return p;
+	}
+
+	private double measure(int number, int realization, int labeling_threads){
+
+		// one image: 1/0 for spanning, or the largest region fraction
+		if (params.isGeometricPercolation()){
+			WireNetworkResult r = WireNetwork.analyze(Wire_Generator_.CreateWires(params, number, realization), params.getImageSize(), labeling_threads);
+			return params.isThresholdBySpanning() ? (r.isSpanning() ? 1 : 0) : r.getLargestFraction();
+		}
+		BitCanvas picture = Wire_Generator_.DrawPicture(params, number, realization, labeling_threads);
+		LabelingResult l = ConnectedComponents.label(picture, labeling_threads, false);
+		return params.isThresholdBySpanning() ? (l.isSpanning() ? 1 : 0) : l.getPercolation();
+	}
+
+	private void writeResults(double threshold, int lo, int hi){
+
+		List<Probe> sorted = new ArrayList<Probe>(probes);
+		Collections.sort(sorted, new Comparator<Probe>() {
+			@Override
+			public int compare(Probe a, Probe b) {
+				return Integer.compare(a.number, b.number);
+			}
+		});
+		StringBuilder text = new StringBuilder("#wires" + '\t' + (params.isThresholdBySpanning() ? "spanning prob." : "largest"));
+		for (Probe p : sorted){
+			text.append('\n').append(p.number).append('\t').append(p.value);
+		}
+		text.append("\n# threshold ").append(threshold).append(" (").append(lo).append(" - ").append(hi)
+			.append("), target ").append(params.getThresholdTarget()).append(", ").append(params.getThresholdRealizations()).append(" realizations");
+		String filename_results = params.getDestinationPath() + "00-threshold_search.txt";
+		new File(filename_results).delete();
+		Wire_Generator_.WriteToFile(filename_results, text.toString());
+	}
+
+	private static final class Probe {
+
+		final int number;
+		final double value;		// spanning probability or mean largest fraction
+
+		Probe(int number, double value){
+			this.number = number;
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ij.IJ;
+
+/*
+ * Tiled rendering for images that don't fit into memory (or into one Java array, above 46340 pixels per side).
+ *
+ * The image is never in memory as a whole: the wires are put into the tiles their bounding box
+ * (plus half the width) touches, the tiles are drawn and compressed in parallel by the WireScheduler,
+ * a few at a time, and written one after the other into a tiled BigTIFF file (see TiledTiffWriter).
+ * Memory depends on the tile size and the number of wires, not on the image size.
+ * The pixels are the same as those of the whole image drawn by the WireRasterizer.
+ *
+ * Only the images and the wire files are made, no skeletonize or FCR (they need the whole image).
+ * image_format tif1 gives 1 bit per pixel, otherwise 8 bit; zip and png are deflated with compression_level.
+ */
+
+public final class TiledRenderer {
+
+	private TiledRenderer(){
+	}
+
+	public static void run(GenerationParameters params){
+
+		// all images of the sequence, one after the other (each image uses all threads)
+		IJ.resetEscape();
+		for (int i = 0; i < params.getNumberOfImages(); i++){
+			render(params, params.getNumberOfWires(i));
+		}
+	}
+
+	public static long render(GenerationParameters params, int number){
+
+		// creates, draws and saves one image, returns the number of white pixels
+		final int image_size = params.getImageSize();
+		final int tile_size = params.getTileSize();
+		String filename = params.createFileName(number);
+		File path = new File(params.getDestinationPath() + filename + ".tif");
+
+		RunMetrics.Timer timer = RunMetrics.current().start("generation");
+		System.err.println("I'm Thread-"+ Thread.currentThread().getId()+ ", and I'm creating a tiled Picture with " + number + " wires");
+		final Wire[] wires = Wire_Generator_.CreateWires(params, number);
+		long tries = Wire_Generator_.SaveWires(params, number, wires);
+
+		String format = params.getImageFormat();
+		int level = format.equals("zip") || format.equals("png") ? params.getCompressionLevel() : -1;
+		final TiledTiffWriter writer;
+		try {
+			writer = new TiledTiffWriter(path, image_size, image_size, tile_size, format.equals("tif1"), level);
+		} catch (IOException e) {
+			timer.stop();
+			throw new RuntimeException("Could not save " + path + ": " + e.getMessage(), e);
+		}
+
+		final int across = (image_size + tile_size-1)/tile_size;
+		int[][] rows = bin(wires, true, across, image_size, tile_size);
+		long pixels = 0;
+		boolean saved = false;
+		try {
+			// tile row by tile row, the tiles of a row in batches of a few tiles per thread
+			int batch = 4*WireScheduler.getThreads();
+			final byte[][] encoded = new byte[batch][];
+			final long[] counted = new long[batch];
+			for (int ty = 0; ty < across; ty++){
+				final int[][] cells = bin(wires, false, across, image_size, tile_size, rows[ty]);
+				rows[ty] = null;
+				final int y0 = ty*tile_size;
+				for (int tx0 = 0; tx0 < across; tx0 += batch){
+					if (IJ.escapePressed()){
+						throw new WireCancelledException("tiled rendering canceled in tile row " + ty + " of " + across);
+					}
+					final int first = tx0;
+					final int count = Math.min(batch, across-tx0);
+					WireScheduler.split("tiles", count, new WireScheduler.Task() {
+						@Override
+						public void run(int k) {
+							int x0 = (first+k)*tile_size;
+							BitCanvas tile = drawTile(wires, cells[first+k], x0, y0, tile_size, image_size);
+							counted[k] = tile.countPixels();
+							encoded[k] = writer.encode(tile);
+						}
+					});
+					for (int k = 0; k < count; k++){
+						writer.writeTile(encoded[k]);
+						encoded[k] = null;
+						pixels += counted[k];
+					}
+				}
+				IJ.showProgress(ty+1, across);
+			}
+			writer.close();
+			saved = true;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not save " + path + ": " + e.getMessage(), e);
+		} finally {
+			// an incomplete file (Esc or error) is deleted
+			if (!saved) writer.discard();
+			timer.stop();
+		}
+
+		System.out.println(filename+" -----> done. Coverage " + pixels/((double)image_size*image_size));
+		timer.addWires(number, tries);
+		timer.addPixels(pixels);
+		RunMetrics.current().addFile(path.getPath());
+		return pixels;
+	}
+
+	private static BitCanvas drawTile(Wire[] wires, int[] indices, final int x0, final int y0, int tile_size, int image_size){
+
+		// one tile, all wires clipped to it (and to the image)
+		final BitCanvas tile = new BitCanvas(tile_size, tile_size);
+		SpanCanvas shifted = new SpanCanvas(){
+			@Override
+			public void fillSpan(int y, int x_from, int x_to){
+				tile.fillSpan(y-y0, x_from-x0, x_to-x0);
+			}
+		};
+		int x1 = Math.min(x0+tile_size, image_size)-1;
+		int y1 = Math.min(y0+tile_size, image_size)-1;
+		for (int i : indices){
+			WireRasterizer.draw(wires[i], shifted, x0, y0, x1, y1);
+		}
+		return tile;
+	}
+
+	private static int[][] bin(Wire[] wires, boolean rows, int n, int image_size, int tile_size){
+		int[] all = new int[wires.length];
+		for (int i = 0; i < all.length; i++) all[i] = i;
+		return bin(wires, rows, n, image_size, tile_size, all);
+	}
+
+	private static int[][] bin(Wire[] wires, boolean rows, int n, int image_size, int tile_size, int[] indices){
+
+		// the wires of indices in every tile row (or column) they touch
+		int[] first = new int[indices.length];
+		int[] last = new int[indices.length];
+		int[] size = new int[n];
+		for (int k = 0; k < indices.length; k++){
+			Wire draht = wires[indices[k]];
+			double[] bounds = draht.getBounds();
+			double radius = draht.getWidth()/2;
+			int axis = rows ? 1 : 0;
+			double lo = Math.max(0, Math.floor(bounds[axis]-radius));
+			double hi = Math.min(image_size-1, Math.ceil(bounds[axis+2]+radius));
+			if (lo > hi){
+				first[k] = -1;
+				continue;
+			}
+			first[k] = (int) lo / tile_size;
+			last[k] = (int) hi / tile_size;
+			for (int t = first[k]; t <= last[k]; t++) size[t]++;
+		}
+		int[][] bins = new int[n][];
+		for (int t = 0; t < n; t++) bins[t] = new int[size[t]];
+		Arrays.fill(size, 0);
+		for (int k = 0; k < indices.length; k++){
+			for (int t = first[k]; t >= 0 && t <= last[k]; t++) bins[t][size[t]++] = indices[k];
+		}
+		return bins;
+	}
+
+}
@@ -0,0 +1,187 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/*
+ * Writes one tiled BigTIFF file tile by tile, for images that never are in memory as a whole
+ * (see TiledRenderer). BigTIFF has 64 bit offsets, so the file can be bigger than 4 GB.
+ *
+ * The header, the IFD and the tables of all tile offsets and byte counts are at the start of the file,
+ * the tiles follow in the order of the tile index (row by row). The tables are filled in while the tiles
+ * are written, so nothing grows with the number of tiles in memory.
+ * The pixels are 1 bit (first pixel in the highest bit) or 8 bit, uncompressed or deflated
+ * (compression 8, zlib stream). Every tile has the full tile size, the pixels behind the border are black.
+ * ImageJ opens BigTIFF with Bio-Formats (File>Import>Bio-Formats), not with File>Open.
+ */
+
+final class TiledTiffWriter {
+
+	private static final int ENTRIES = 10;
+	private static final int IFD_OFFSET = 16;
+	private static final int TABLES_OFFSET = IFD_OFFSET + 8 + ENTRIES*20 + 8;
+
+	private final File path;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int tile_size;
+	private final int bits;
+	private final int level;		// deflate level, -1 = uncompressed
+	private final long tiles;
+	private final long offsets_at;	// where the tables are (in the IFD entry itself for a single tile)
+	private final long counts_at;
+	private long next_tile = 0;
+	private long end;				// end of the file
+
+	TiledTiffWriter(File path, long width, long height, int tile_size, boolean one_bit, int level) throws IOException {
+
+		this.tile_size = tile_size;
+		this.bits = one_bit ? 1 : 8;
+		this.level = level;
+		long across = (width + tile_size-1)/tile_size;
+		long down = (height + tile_size-1)/tile_size;
+		this.tiles = across*down;
+		if (tiles==1){
+			// tables with one value are in the IFD entry (entries 8 and 9)
+			offsets_at = IFD_OFFSET + 8 + 8*20 + 12;
+			counts_at = IFD_OFFSET + 8 + 9*20 + 12;
+			end = TABLES_OFFSET;
+		} else {
+			offsets_at = TABLES_OFFSET;
+			counts_at = TABLES_OFFSET + 8*tiles;
+			end = TABLES_OFFSET + 16*tiles;
+		}
+
+		ByteBuffer h = ByteBuffer.allocate(TABLES_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+		h.put((byte) 'I').put((byte) 'I').putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(IFD_OFFSET);
+		h.putLong(ENTRIES);
+		entry(h, 256, 4, 1, width);							// ImageWidth
+		entry(h, 257, 4, 1, height);						// ImageLength
+		entry(h, 258, 3, 1, bits);							// BitsPerSample
+		entry(h, 259, 3, 1, level < 0 ? 1 : 8);				// Compression: none or deflate
+		entry(h, 262, 3, 1, 1);								// PhotometricInterpretation: BlackIsZero
+		entry(h, 277, 3, 1, 1);								// SamplesPerPixel
+		entry(h, 322, 4, 1, tile_size);						// TileWidth
+		entry(h, 323, 4, 1, tile_size);						// TileLength
+		entry(h, 324, 16, tiles, tiles==1 ? 0 : offsets_at);	// TileOffsets (LONG8)
+		entry(h, 325, 16, tiles, tiles==1 ? 0 : counts_at);		// TileByteCounts (LONG8)
+		h.putLong(0);										// no next IFD
+
+		File parent = path.getAbsoluteFile().getParentFile();
+		if (parent!=null && !parent.isDirectory()) throw new IOException("No directory " + parent);
+		this.path = path;
+		this.file = new RandomAccessFile(path, "rw");
+		this.channel = file.getChannel();
+		try {
+			file.setLength(0);
+			h.flip();
+			write(h, 0);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	private static void entry(ByteBuffer h, int tag, int type, long count, long value){
+		h.putShort((short) tag).putShort((short) type).putLong(count).putLong(value);
+	}
+
+	long getTiles(){
+		return tiles;
+	}
+
+	long getBytes(){
+		// bytes written so far
+		return end;
+	}
+
+	byte[] encode(BitCanvas tile){
+
+		// the tile in the byte layout of the file, deflated if wanted (can be called by any thread)
+		int row_bytes = bits==1 ? tile_size/8 : tile_size;
+		byte[] raw = new byte[row_bytes*tile_size];
+		long[] words = tile.getWords();
+		int words_per_row = tile.getWordsPerRow();
+		for (int y = 0; y < tile.getHeight(); y++){
+			int row = y*words_per_row;
+			int off = y*row_bytes;
+			for (int i = 0; i < words_per_row; i++){
+				long w = words[row+i];
+				if (w==0) continue;
+				if (bits==1){
+					// bit k of the word is pixel 64*i+k, in the file the first pixel is the highest bit of a byte
+					for (int b = 0; b < 8 && 8*i+b < row_bytes; b++){
+						raw[off + 8*i+b] = (byte) (Integer.reverse((int) (w >>> (8*b)) & 0xFF) >>> 24);
+					}
+				} else {
+					while (w!=0){
+						raw[off + (i << 6) + Long.numberOfTrailingZeros(w)] = (byte) 255;
+						w &= w-1;
+					}
+				}
+			}
+		}
+		if (level < 0) return raw;
+
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			byte[] out = new byte[raw.length/8 + 64];
+			int n = 0;
+			while (!deflater.finished()){
+				if (n==out.length) out = Arrays.copyOf(out, 2*out.length);
+				n += deflater.deflate(out, n, out.length-n);
+			}
+			return Arrays.copyOf(out, n);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	void writeTile(byte[] data) throws IOException {
+
+		// the next tile (in the order of the tile index)
+		if (next_tile >= tiles) throw new IOException("All " + tiles + " tiles are written already");
+		write(ByteBuffer.wrap(data), end);
+		ByteBuffer entry = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		entry.putLong(0, end);
+		write(entry, offsets_at + 8*next_tile);
+		entry.clear();
+		entry.putLong(0, data.length);
+		write(entry, counts_at + 8*next_tile);
+		end += data.length;
+		next_tile++;
+	}
+
+	void close() throws IOException {
+
+		try {
+			if (next_tile!=tiles) throw new IOException("Only " + next_tile + " of " + tiles + " tiles written");
+		} finally {
+			file.close();
+		}
+	}
+
+	void discard(){
+
+		// closes and deletes the file
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		path.delete();
+	}
+
+	private void write(ByteBuffer data, long position) throws IOException {
+		while (data.hasRemaining()){
+			position += channel.write(data, position);
+		}
+	}
+
+}
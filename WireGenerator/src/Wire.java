@@ -1,11 +1,8 @@
-import java.util.ArrayList;
-import org.ini4j.Ini;
-
-import ij.IJ;
-
 /*
  * This Class represents the Wire Objects (bent and straight)
- * The Constructor needs the Ini Object and three Probability Lists (lists can be "null" if not needed)
+ * The Constructor needs the GenerationParameters (which also hold the Probability Distributions)
+ * and the random stream of the image the wire belongs to
+ * (or all values of a saved wire, for the replay)
  * 
  * 
  */
@@ -24,88 +21,183 @@ public class Wire {
 	private int mx;			// Midpoint
 	private int my;
 	private boolean isBent = true;
+	private int tries = 0;	// placement tries (for the run report)
 
-	public Wire(Ini ini, ArrayList<String> length_prop_list, ArrayList<String> width_prop_list, ArrayList<String> alpha_prop_list){
+	// analytic placement: orientations drawn before the fitting ones are searched
+	private static final int MAX_ORIENTATIONS = 1000;
+
+	public Wire(GenerationParameters p, WireRandom random){
 
 		int counter=0; // no more than 100 trys to place a Wire. Otherwise its too big for the picture.
 
-		double min_width = ini.get("Parameters","min_width",double.class);
-		double max_width = ini.get("Parameters","max_width",double.class);
-		double min_length = ini.get("Parameters","min_length",double.class);
-		double max_length = ini.get("Parameters","max_length",double.class);
-		double max_alpha = ini.get("Parameters","max_opening_angle",double.class);
-		int size = ini.get("Parameters","image_size",double.class).intValue();
+		int size = p.getImageSize();
 
 		// Get random length, width and opening angle (with given prop. distribution from file, if desired)
-		if (ini.get("Parameters","bool_length_by_list",boolean.class))
+		if (p.getLengthDistribution()!=null)
 		{
-			this.length = valueByList(length_prop_list);
+			this.length = p.getLengthDistribution().sample(random);
 		} else {
-			this.length = min_length + Math.random()*(max_length- min_length);
+			this.length = p.getMinLength() + random.nextDouble()*(p.getMaxLength()- p.getMinLength());
 		}
 
-		if (ini.get("Parameters","bool_width_by_list",boolean.class))
+		if (p.getWidthDistribution()!=null)
 		{
-			this.width = valueByList(width_prop_list);
+			this.width = p.getWidthDistribution().sample(random);
 		} else {
-			this.width = min_width + Math.random()*(max_width- min_width);
+			this.width = p.getMinWidth() + random.nextDouble()*(p.getMaxWidth()- p.getMinWidth());
 		}
 
-		if (ini.get("Parameters","bool_alpha_by_list",boolean.class))
+		if (p.getAlphaDistribution()!=null)
 		{
-			this.alpha = valueByList(alpha_prop_list);
+			this.alpha = p.getAlphaDistribution().sample(random);
 		} else {
-			this.alpha = Math.random()*max_alpha;
+			this.alpha = random.nextDouble()*p.getMaxOpeningAngle();
 		}
 
 		// convert alpha to rad
 		this.alpha*=(Math.PI/180);
 
+		// if Midpoint difference of bent wire and straight line is less than 2pixel --> no need for bending
+		if(alpha==0 || ((this.length/this.alpha)*(1-Math.cos(this.alpha/2)))<2){
+			this.isBent = false;
+		}
+		if (this.isBent){
+			// calculate r
+			this.r = this.length/this.alpha;
+		}
+
+		if (p.isAnalyticPlacement() && !p.isAllowOutside()){
+			PlaceInPicture(size, random);
+			return;
+		}
+
 		// Try to place a wire in picture
 		do{
 			// Random Orientation
-			this.phi = Math.random()*2*Math.PI;
+			this.phi = random.nextDouble()*2*Math.PI;
 
 			// P1 random in picture
-			this.p1x = (int) (Math.random()*size);
-			this.p1y = (int)(Math.random()*size);
+			Place((int) (random.nextDouble()*size), (int)(random.nextDouble()*size));
 
-			// if Midpoint difference of bent wire and straight line is less than 2pixel --> no need for bending
-			if(alpha==0 || ((this.length/this.alpha)*(1-Math.cos(this.alpha/2)))<2){
-				this.isBent = false;
+			counter++;
+			this.tries = counter;
+			if (counter>100){
+				throw new WirePlacementException("Wires too big for image size!\nChoose shorter wires or a bigger image.");
 			}
+		}
+		// Repeat as long as Wire isn't in Picture except user said it is allowed
+		while (!p.isAllowOutside() && !this.IsInPicture(size));
 
-			if (this.isBent){
-				// calculate r
-				this.r = this.length/this.alpha;
+	}
 
-				// go to midpoint
-				this.mx = (int) (this.p1x + r*Math.cos(this.phi));
-				this.my = (int) (this.p1y - r*Math.sin(this.phi));
+	public Wire(double length, double width, double r, double alpha, double phi, int x1, int y1, int x2, int y2, int mx, int my, boolean bent){
+
+		// a wire with known values (from a saved wire file, see WireReplay), nothing is random
+		this.length = length;
+		this.width = width;
+		this.r = r;
+		this.alpha = alpha;
+		this.phi = phi;
+		this.p1x = x1;
+		this.p1y = y1;
+		this.p2x = x2;
+		this.p2y = y2;
+		this.mx = mx;
+		this.my = my;
+		this.isBent = bent;
+	}
 
-				// now go from midpoint to P2
+	public Wire scaled(double scale, double width_scale){
 
-				this.p2x = (int) (this.mx - this.r*Math.cos(this.alpha+this.phi));
-				this.p2y = (int) (this.my + this.r*Math.sin(this.alpha+this.phi));
-			}
-			else{// not bent:
-				// P2 is straight line away from P1
-				this.p2x = (int) (this.p1x + this.length*Math.cos(this.phi));
-				this.p2y = (int) (this.p1y - this.length*Math.sin(this.phi));
-			}
+		// the same wire in an image scale times bigger (positions, length, radius and width),
+		// the width is also multiplied by width_scale
+		return new Wire(length*scale, width*scale*width_scale, r*scale, alpha, phi,
+				(int) Math.round(p1x*scale), (int) Math.round(p1y*scale), (int) Math.round(p2x*scale), (int) Math.round(p2y*scale),
+				(int) Math.round(mx*scale), (int) Math.round(my*scale), isBent);
+	}
 
+	private void Place(int x, int y){
 
-			counter++;
-			if (counter>100){
-				System.err.println("Wires too big for image size!\nChoose shorter wires or a bigger image.");
-				IJ.error("Error during Wire placement", "Wires too big for image size!\nChoose shorter wires or a bigger image.");
-				System.exit(1); //0 for normal shutdown - 1 for emergency!
+		// puts P1 at x,y and calculates the rest with the orientation phi
+		this.p1x = x;
+		this.p1y = y;
+		if (this.isBent){
+			// go to midpoint
+			this.mx = (int) (this.p1x + r*Math.cos(this.phi));
+			this.my = (int) (this.p1y - r*Math.sin(this.phi));
+
+			// now go from midpoint to P2
+
+			this.p2x = (int) (this.mx - this.r*Math.cos(this.alpha+this.phi));
+			this.p2y = (int) (this.my + this.r*Math.sin(this.alpha+this.phi));
+		}
+		else{// not bent:
+			// P2 is straight line away from P1
+			this.p2x = (int) (this.p1x + this.length*Math.cos(this.phi));
+			this.p2y = (int) (this.p1y - this.length*Math.sin(this.phi));
+		}
+	}
+
+	private void PlaceInPicture(int size, WireRandom random){
+
+		// Analytic placement: P1 is drawn only from the positions that keep the whole wire
+		// in the picture, so there are no retries of the position (only of orientations that don't fit).
+		// The box of the wire relative to P1 only depends on the orientation.
+		// 2 pixel margin, because the midpoint and P2 are rounded to whole pixels.
+		this.phi = random.nextDouble()*2*Math.PI;
+		this.tries = 1;
+		double[] b = RelativeBounds(this.phi);
+		while (!Fits(b, size)){
+			// doesn't fit in this orientation: draw another one (uniform like the first one)
+			if (this.tries == MAX_ORIENTATIONS){
+				// only a few orientations fit (or none)
+				this.phi = FittingOrientation(size, random);
+				b = RelativeBounds(this.phi);
 				break;
 			}
+			this.phi = random.nextDouble()*2*Math.PI;
+			this.tries++;
+			b = RelativeBounds(this.phi);
 		}
-		// Repeat as long as Wire isn't in Picture except user said it is allowed
-		while (!this.IsInPicture(ini) && !ini.get("Parameters","allow_outside",boolean.class));
 
+		// P1 uniform in x = 2-b[0] .. size-2-b[2] (same for y)
+		int x0 = (int) Math.ceil(2-b[0]);
+		int y0 = (int) Math.ceil(2-b[1]);
+		int x1 = (int) Math.floor(size-2-b[2]);
+		int y1 = (int) Math.floor(size-2-b[3]);
+		Place(x0 + (int)(random.nextDouble()*(x1-x0+1)), y0 + (int)(random.nextDouble()*(y1-y0+1)));
+	}
+
+	private double FittingOrientation(int size, WireRandom random){
+
+		// a random orientation from 3600 steps (each at a random place inside its step),
+		// every fitting one with the same chance
+		double chosen = 0;
+		int n = 0;
+		for (int k = 0; k < 3600; k++){
+			double a = (k + random.nextDouble())*2*Math.PI/3600;
+			if (Fits(RelativeBounds(a), size) && random.nextDouble()*(++n) < 1) chosen = a;
+		}
+		if (n==0){
+			throw new WirePlacementException("Wire with length "+(int)length+" doesn't fit in the image in any orientation!\nChoose shorter wires or a bigger image.");
+		}
+		return chosen;
+	}
+
+	private static boolean Fits(double[] b, int size){
+		// box relative to P1 with the 2 pixel margin on every side
+		return b[2]-b[0] <= size-4 && b[3]-b[1] <= size-4;
+	}
+
+	private double[] RelativeBounds(double phi){
+
+		// box of the center line if P1 is at 0,0
+		if (this.isBent){
+			return arcBounds(r*Math.cos(phi), -r*Math.sin(phi), r, phi, alpha);
+		}
+		double x2 = this.length*Math.cos(phi);
+		double y2 = -this.length*Math.sin(phi);
+		return new double[]{Math.min(0, x2), Math.min(0, y2), Math.max(0, x2), Math.max(0, y2)};
 	}
 
 	public double getLength(){
@@ -156,62 +248,44 @@ public class Wire {
 		return isBent;
 	}
 
+	public int getPlacementTries(){
+		return tries;
+	}
 
-	private static double valueByList(ArrayList<String> liste){
-
-		// This Method gets the String List containing the probability distribution
-		// The file should look like: (without header)
-		// value , prop
-		// 5 , 0.3
-		// 10 , 0.3
-		// 20 , 0.4
+	public double[] getBounds(){
 
-		double[][] werte = new double[liste.size()][2];
-		double werte_sum = 0;
-		for (int i = 0; i < liste.size(); i++){
-			String[] zeile = liste.get(i).split(",");
-			werte[i][0] = Double.parseDouble(zeile[0]);
-			werte[i][1] = Double.parseDouble(zeile[1]);
-			werte_sum += werte[i][1];
+		// bounding box of the center line {x_min, y_min, x_max, y_max} (without the width)
+		if (!this.isBent){
+			return new double[]{Math.min(p1x, p2x), Math.min(p1y, p2y), Math.max(p1x, p2x), Math.max(p1y, p2y)};
 		}
-		//normalize probability values (no effect if already normalized)
-		for (int i = 0; i < liste.size(); i++){
-			werte[i][1] /= werte_sum;
-		}
-		double min_val = werte[0][0];
-		double max_val = werte[werte.length-1][0];
-		double value = 0;
-		double probability = 0;
-
-		do{
-			// Random value in lists Range
-			value = min_val + Math.random()*(max_val- min_val);
-
-			// threshold is the first value thats bigger than value
-			int threshhold = 0;
-			for (int i = 0; i< werte.length; i++){
-				if (value < werte[i][0]){
-					threshhold = i;
-					break;
-				}
-			}
-
-			// probability is linear interpolated between the two sourrounding values
-			double x1 = werte[threshhold-1][0];
-			double x2 = werte[threshhold][0];
-			double y1 = werte[threshhold-1][1];
-			double y2 = werte[threshhold][1];
+		return arcBounds(mx, my, r, phi, alpha);
+	}
 
-			probability = y1 + (value-x1)*((y2-y1) / (x2-x1));
+	static double[] arcBounds(double mx, double my, double r, double phi, double alpha){
+
+		// the arc runs through (mx - r*cos(a), my + r*sin(a)) for a = phi .. phi+alpha
+		// box of both end points, extended by the extreme points (a = 0, 90, 180, 270 deg) inside the arc
+		double x1 = mx - r*Math.cos(phi);
+		double y1 = my + r*Math.sin(phi);
+		double x2 = mx - r*Math.cos(phi+alpha);
+		double y2 = my + r*Math.sin(phi+alpha);
+		double[] b = {Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2)};
+		if (inArc(0, phi, alpha)) b[0] = mx - r;
+		if (inArc(Math.PI/2, phi, alpha)) b[3] = my + r;
+		if (inArc(Math.PI, phi, alpha)) b[2] = mx + r;
+		if (inArc(3*Math.PI/2, phi, alpha)) b[1] = my - r;
+		return b;
+	}
 
-		}
-		while (probability < Math.random());
-		return value;
+	static boolean inArc(double a, double phi, double alpha){
+		// is angle a between phi and phi+alpha?
+		double d = (a - phi) % (2*Math.PI);
+		if (d < 0) d += 2*Math.PI;
+		return d <= alpha;
 	}
 
-	private boolean IsInPicture(Ini ini){		
 
-		double size = ini.get("Parameters","image_size",double.class);
+	private boolean IsInPicture(double size){		
 
 		// For bent wire check first if quadrat around the midpoint is in picture
 		// This avoids running through the hole Wire every time
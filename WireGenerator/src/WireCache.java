@@ -0,0 +1,376 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/*
+ * Cache of generated images and their results in destinationpath/00-cache (cache_size_mb > 0),
+ * so a run with the same generation parameters only does the stages whose settings changed.
+ *
+ * The key is a hash of everything the wires of an image depend on (sizes, lists, angle, placement,
+ * image size, seed and the number of wires), every key is one directory with:
+ * image.bits (the packed image), wires.bin (wire catalog), slice-<format>-<level> (the saved image file),
+ * fcr.txt (regions, percolation, coverage, spanning) and skeleton.bits, as soon as they are made.
+ * The region images are not cached, FCR is done again if they are needed.
+ *
+ * Only the images of CreatePicture() are cached (not the nested sweep or the replay, their images are
+ * different for the same key). An entry is made in a temporary directory and renamed, so it is complete
+ * or not there. Every hit touches the directory; if the cache is bigger than cache_size_mb,
+ * the entries used longest ago are deleted. A damaged or deleted entry is just a miss.
+ */
+
+public final class WireCache {
+
+	// new version if the pixels or the files of the same key change
+	private static final String VERSION = "1";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private WireCache(){
+	}
+
+	public static String key(GenerationParameters params, int number){
+
+		// null if there is no cache
+		if (!params.isCache()) return null;
+		StringBuilder s = new StringBuilder("v").append(VERSION);
+		s.append("|size ").append(params.getImageSize());
+		s.append("|length ").append(params.getMinLength()).append(' ').append(params.getMaxLength()).append(' ').append(params.getLengthDistribution());
+		s.append("|width ").append(params.getMinWidth()).append(' ').append(params.getMaxWidth()).append(' ').append(params.getWidthDistribution());
+		s.append("|angle ").append(params.getMaxOpeningAngle()).append(' ').append(params.getAlphaDistribution());
+		s.append("|outside ").append(params.isAllowOutside()).append("|analytic ").append(params.isAnalyticPlacement());
+		s.append("|seed ").append(params.getSeed()).append("|n ").append(number);
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(s.toString().getBytes(UTF8));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 16; i++) hex.append(String.format("%02x", hash[i] & 0xFF));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static File directory(GenerationParameters params){
+		return new File(params.getDestinationPath() + "00-cache");
+	}
+
+	private static File entry(GenerationParameters params, String key){
+		return new File(directory(params), key);
+	}
+
+	// ---- image and wires ----
+
+	public static BitCanvas loadImage(GenerationParameters params, String key){
+
+		// null if it's not in the cache
+		if (key==null) return null;
+		File entry = entry(params, key);
+		if (!new File(entry, "wires.bin").isFile()) return null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(new File(entry, "image.bits"))), 1<<16));
+			try {
+				BitCanvas canvas = new BitCanvas(in.readInt(), in.readInt());
+				long[] words = canvas.getWords();
+				byte[] chunk = new byte[1<<16];
+				ByteBuffer buffer = ByteBuffer.wrap(chunk);
+				for (int i = 0; i < words.length; ){
+					int n = Math.min(chunk.length/8, words.length-i);
+					in.readFully(chunk, 0, 8*n);
+					buffer.clear();
+					buffer.asLongBuffer().get(words, i, n);
+					i += n;
+				}
+				touch(entry);
+				return canvas;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// damaged, it's made again
+			delete(entry);
+			return null;
+		}
+	}
+
+	public static void storeImage(GenerationParameters params, String key, BitCanvas canvas, Wire[] wires){
+
+		// a new entry with the image and the wires
+		if (key==null) return;
+		File entry = entry(params, key);
+		File tmp = new File(directory(params), key + ".tmp" + Thread.currentThread().getId());
+		try {
+			tmp.mkdirs();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(new File(tmp, "image.bits")), new Deflater(1), 1<<16), 1<<16));
+			try {
+				out.writeInt(canvas.getWidth());
+				out.writeInt(canvas.getHeight());
+				long[] words = canvas.getWords();
+				byte[] chunk = new byte[1<<16];
+				ByteBuffer buffer = ByteBuffer.wrap(chunk);
+				for (int i = 0; i < words.length; ){
+					int n = Math.min(chunk.length/8, words.length-i);
+					buffer.clear();
+					buffer.asLongBuffer().put(words, i, n);
+					out.write(chunk, 0, 8*n);
+					i += n;
+				}
+			} finally {
+				out.close();
+			}
+			WireSink sink = new WireCatalogSink(new File(tmp, "wires.bin").getPath(), params);
+			try {
+				for (Wire draht : wires) sink.write(draht);
+			} finally {
+				sink.close();
+			}
+			if (!tmp.renameTo(entry)){
+				// made by someone else in the meantime
+				delete(tmp);
+			}
+		} catch (IOException e) {
+			// no cache for this image, the run goes on
+			System.err.println("Could not cache " + key + ": " + e.getMessage());
+			delete(tmp);
+			return;
+		}
+		evict(params);
+	}
+
+	public static boolean restoreWires(GenerationParameters params, String key, String[] files){
+
+		// the wire files of an image from the cached catalog, false if that doesn't work
+		File catalog = new File(entry(params, key), "wires.bin");
+		try {
+			for (String file : files){
+				if (file.endsWith(".bin")){
+					Files.copy(catalog.toPath(), new File(file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} else {
+					WireSink sink = new TextWireSink(file);
+					try {
+						for (Wire draht : WireReplay.load(catalog, 1, 1, new int[1])) sink.write(draht);
+					} finally {
+						sink.close();
+					}
+				}
+				RunMetrics.current().addFile(file);
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// ---- saved image file ----
+
+	public static File sliceFile(GenerationParameters params, String key){
+		// where the saved image in the current format is kept (null if there is no cache)
+		if (key==null) return null;
+		return new File(entry(params, key), "slice-" + params.getImageFormat() + "-" + params.getCompressionLevel());
+	}
+
+	public static boolean restoreSlice(GenerationParameters params, String key, String base){
+
+		// copies the saved image file (base: path and filename without the extension), false if it's not there
+		File slice = sliceFile(params, key);
+		if (slice==null || !slice.isFile()) return false;
+		File file = new File(base + SliceEncoder.extension(params.getImageFormat(), null));
+		try {
+			Files.copy(slice.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			return false;
+		}
+		RunMetrics.current().addFile(file.getPath());
+		return true;
+	}
+
+	static void storeFile(GenerationParameters params, File source, File target){
+
+		// a copy of a saved file into an entry (if the entry is still there)
+		File tmp = new File(target.getPath() + ".tmp" + Thread.currentThread().getId());
+		try {
+			Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tmp.delete();
+			return;
+		}
+		evict(params);
+	}
+
+	// ---- results of the stages ----
+
+	public static double[] loadFcr(GenerationParameters params, String key){
+
+		// {regions, percolation, coverage, spanning (1 or 0)}, null if it's not in the cache
+		if (key==null) return null;
+		File entry = entry(params, key);
+		try {
+			String[] v = new String(Files.readAllBytes(new File(entry, "fcr.txt").toPath()), UTF8).trim().split("\t");
+			double[] result = new double[4];
+			for (int i = 0; i < 4; i++) result[i] = Double.parseDouble(v[i]);
+			touch(entry);
+			return result;
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	public static void storeFcr(GenerationParameters params, String key, LabelingResult labeling){
+		if (key==null) return;
+		String text = labeling.getCount() + "\t" + labeling.getPercolation() + "\t" + labeling.getCoverage() + "\t" + (labeling.isSpanning() ? 1 : 0) + "\n";
+		storeBytes(params, key, "fcr.txt", text.getBytes(UTF8));
+	}
+
+	public static ImageProcessor loadSkeleton(GenerationParameters params, String key){
+
+		// null if it's not in the cache
+		if (key==null) return null;
+		File entry = entry(params, key);
+		File file = new File(entry, "skeleton.bits");
+		if (!file.isFile()) return null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file)), 1<<16));
+			try {
+				int width = in.readInt();
+				int height = in.readInt();
+				ByteProcessor bp = new ByteProcessor(width, height);
+				byte[] pixels = (byte[]) bp.getPixels();
+				byte[] row = new byte[(width+7)/8];
+				for (int y = 0; y < height; y++){
+					in.readFully(row);
+					for (int x = 0; x < width; x++){
+						if ((row[x >>> 3] & (0x80 >>> (x & 7)))!=0) pixels[y*width+x] = (byte) 255;
+					}
+				}
+				touch(entry);
+				return bp;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public static void storeSkeleton(GenerationParameters params, String key, ImageProcessor skeleton){
+
+		// only binary skeletons (0 and 255), 1 bit per pixel
+		if (key==null || !(skeleton instanceof ByteProcessor)) return;
+		int width = skeleton.getWidth();
+		int height = skeleton.getHeight();
+		byte[] pixels = (byte[]) skeleton.getPixels();
+		int row_bytes = (width+7)/8;
+		byte[] bits = new byte[8 + row_bytes*height];
+		ByteBuffer.wrap(bits).putInt(width).putInt(height);
+		for (int y = 0; y < height; y++){
+			for (int x = 0; x < width; x++){
+				byte v = pixels[y*width+x];
+				if (v==(byte) 255){
+					bits[8 + y*row_bytes + (x >>> 3)] |= 0x80 >>> (x & 7);
+				} else if (v!=0){
+					return;
+				}
+			}
+		}
+		Deflater deflater = new Deflater(1);
+		byte[] packed;
+		try {
+			deflater.setInput(bits);
+			deflater.finish();
+			byte[] out = new byte[bits.length/4 + 64];
+			int n = 0;
+			while (!deflater.finished()){
+				if (n==out.length) out = Arrays.copyOf(out, 2*out.length);
+				n += deflater.deflate(out, n, out.length-n);
+			}
+			packed = Arrays.copyOf(out, n);
+		} finally {
+			deflater.end();
+		}
+		storeBytes(params, key, "skeleton.bits", packed);
+	}
+
+	private static void storeBytes(GenerationParameters params, String key, String name, byte[] data){
+
+		// a new file in an entry (if the entry is still there)
+		File entry = entry(params, key);
+		if (!entry.isDirectory()) return;
+		File tmp = new File(entry, name + ".tmp" + Thread.currentThread().getId());
+		try {
+			Files.write(tmp.toPath(), data);
+			Files.move(tmp.toPath(), new File(entry, name).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tmp.delete();
+			return;
+		}
+		evict(params);
+	}
+
+	// ---- least recently used ----
+
+	private static void touch(File entry){
+		entry.setLastModified(System.currentTimeMillis());
+	}
+
+	private static synchronized void evict(GenerationParameters params){
+
+		// the entries used longest ago are deleted until the cache is not bigger than cache_size_mb
+		File[] entries = directory(params).listFiles();
+		if (entries==null) return;
+		final long[] used = new long[entries.length];
+		long[] size = new long[entries.length];
+		Integer[] order = new Integer[entries.length];
+		long total = 0;
+		for (int i = 0; i < entries.length; i++){
+			order[i] = i;
+			used[i] = entries[i].lastModified();
+			File[] files = entries[i].isDirectory() && !entries[i].getName().contains(".tmp") ? entries[i].listFiles() : null;
+			if (files!=null){
+				for (File f : files) size[i] += f.length();
+			}
+			total += size[i];
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(used[a], used[b]);
+			}
+		});
+		long limit = params.getCacheSize();
+		for (int k = 0; k < order.length && total > limit; k++){
+			int i = order[k];
+			if (size[i]==0) continue;
+			delete(entries[i]);
+			total -= size[i];
+		}
+	}
+
+	private static void delete(File dir){
+		File[] files = dir.listFiles();
+		if (files!=null){
+			for (File f : files) f.delete();
+		}
+		dir.delete();
+	}
+
+}
@@ -0,0 +1,14 @@
+/*
+ * Thrown if the user pressed Esc (or the run was aborted) while the images were created.
+ * Images that were already done are saved, the rest is skipped.
+ */
+
+public class WireCancelledException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public WireCancelledException(String message){
+		super(message);
+	}
+
+}
@@ -0,0 +1,245 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Reads a binary wire catalog ("_wire-catalog.bin", written by WireCatalogSink).
+ *
+ * Layout (little endian): a header of HEADER_BYTES with the generation parameters and the seed,
+ * then the wires in blocks of BLOCK wires. Inside a block every value has its own column
+ * (length, width, r, alpha, phi as double, x1, y1, x2, y2, mx, my as int, bent as byte),
+ * so a column of a block is one piece of memory. Only the last block can have less wires,
+ * its columns are as long as its number of wires. Nothing is rounded: the values are those of the Wire.
+ *
+ * The file is memory-mapped. A Cursor walks through the wires and reads the values straight
+ * from the mapped file, nothing is created per wire:
+ *
+ *   WireCatalog catalog = new WireCatalog(file);
+ *   WireCatalog.Cursor c = catalog.cursor();
+ *   while (c.next()) sum += c.getLength();
+ *   catalog.close();
+ */
+
+public final class WireCatalog implements Closeable {
+
+	static final long MAGIC = 0x3154414345524957L;	// "WIRECAT1"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 128;
+	static final int BLOCK = 4096;
+
+	// columns of a block, bytes per wire
+	static final int DOUBLES = 5;
+	static final int INTS = 6;
+	static final int WIRE_BYTES = 8*DOUBLES + 4*INTS + 1;
+	static final long BLOCK_BYTES = (long) WIRE_BYTES*BLOCK;
+
+	// the mapped pieces hold whole blocks, not more than about 1 GB each
+	private static final long BLOCKS_PER_MAP = Math.max(1, (1L << 30)/BLOCK_BYTES);
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] maps;
+	private final long count;
+	private final long seed;
+	private final int image_size;
+	private final double min_length;
+	private final double max_length;
+	private final double min_width;
+	private final double max_width;
+	private final double max_opening_angle;
+	private final boolean allow_outside;
+	private final boolean analytic_placement;
+	private final boolean by_list;		// length, width or angle from a list
+
+	public WireCatalog(File path) throws IOException {
+
+		this.file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer h = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER_BYTES, channel.size())).order(ByteOrder.LITTLE_ENDIAN);
+			if (h.limit() < HEADER_BYTES || h.getLong(0)!=MAGIC) throw new IOException(path + " is no wire catalog");
+			if (h.getInt(8)!=VERSION) throw new IOException(path + ": unknown catalog version " + h.getInt(8));
+			if (h.getInt(12)!=BLOCK) throw new IOException(path + ": unknown block size " + h.getInt(12));
+			count = h.getLong(16);
+			seed = h.getLong(24);
+			image_size = h.getInt(32);
+			min_length = h.getDouble(40);
+			max_length = h.getDouble(48);
+			min_width = h.getDouble(56);
+			max_width = h.getDouble(64);
+			max_opening_angle = h.getDouble(72);
+			allow_outside = h.get(80)!=0;
+			analytic_placement = h.get(81)!=0;
+			by_list = h.get(82)!=0;
+			if (count < 0 || offset(count) > channel.size()){
+				throw new IOException(path + " is incomplete (" + count + " wires in the header)");
+			}
+
+			long blocks = (count + BLOCK-1)/BLOCK;
+			maps = new MappedByteBuffer[(int) ((blocks + BLOCKS_PER_MAP-1)/BLOCKS_PER_MAP)];
+			for (int m = 0; m < maps.length; m++){
+				long from = offset((long) m*BLOCKS_PER_MAP*BLOCK);
+				long to = offset(Math.min(count, (long) (m+1)*BLOCKS_PER_MAP*BLOCK));
+				maps[m] = channel.map(FileChannel.MapMode.READ_ONLY, from, to-from);
+				maps[m].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	private static long offset(long wire){
+		// where the block of this wire (the first wire of a block) starts, or the end of the file for wire = count
+		long block = wire/BLOCK;
+		return HEADER_BYTES + block*BLOCK_BYTES + (wire - block*BLOCK)*WIRE_BYTES;
+	}
+
+	public long getCount(){
+		return count;
+	}
+
+	public long getSeed(){
+		return seed;
+	}
+
+	public int getImageSize(){
+		return image_size;
+	}
+
+	public double getMinLength(){
+		return min_length;
+	}
+
+	public double getMaxLength(){
+		return max_length;
+	}
+
+	public double getMinWidth(){
+		return min_width;
+	}
+
+	public double getMaxWidth(){
+		return max_width;
+	}
+
+	public double getMaxOpeningAngle(){
+		return max_opening_angle;
+	}
+
+	public boolean isAllowOutside(){
+		return allow_outside;
+	}
+
+	public boolean isAnalyticPlacement(){
+		return analytic_placement;
+	}
+
+	public boolean isByList(){
+		return by_list;
+	}
+
+	public Cursor cursor(){
+		return new Cursor();
+	}
+
+	@Override
+	public void close() throws IOException {
+		// the mapped memory is released by the garbage collector
+		file.close();
+	}
+
+	public final class Cursor {
+
+		// before the first wire, next() moves to the first one
+		private long index = -1;
+		private ByteBuffer map = null;
+		private int base;			// block start in map
+		private int n;				// wires in the current block
+		private int i;				// wire in the current block
+
+		private Cursor(){
+		}
+
+		public boolean next(){
+
+			if (index+1 >= count) return false;
+			index++;
+			i++;
+			if (map==null || i==n){
+				// next block
+				long block = index/BLOCK;
+				map = maps[(int) (block/BLOCKS_PER_MAP)];
+				base = (int) ((block % BLOCKS_PER_MAP)*BLOCK_BYTES);
+				n = (int) Math.min(BLOCK, count - block*BLOCK);
+				i = 0;
+			}
+			return true;
+		}
+
+		public long getIndex(){
+			return index;
+		}
+
+		private double column(int c){
+			return map.getDouble(base + 8*c*n + 8*i);
+		}
+
+		private int intColumn(int c){
+			return map.getInt(base + 8*DOUBLES*n + 4*c*n + 4*i);
+		}
+
+		public double getLength(){
+			return column(0);
+		}
+
+		public double getWidth(){
+			return column(1);
+		}
+
+		public double getR(){
+			return column(2);
+		}
+
+		public double getAlpha(){
+			return column(3);
+		}
+
+		public double getPhi(){
+			return column(4);
+		}
+
+		public int getX1(){
+			return intColumn(0);
+		}
+
+		public int getY1(){
+			return intColumn(1);
+		}
+
+		public int getX2(){
+			return intColumn(2);
+		}
+
+		public int getY2(){
+			return intColumn(3);
+		}
+
+		public int getmx(){
+			return intColumn(4);
+		}
+
+		public int getmy(){
+			return intColumn(5);
+		}
+
+		public boolean isBent(){
+			return map.get(base + (8*DOUBLES + 4*INTS)*n + i)!=0;
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+ * Writes the wires of one image into a binary wire catalog ("_wire-catalog.bin", see WireCatalog
+ * for the layout and the reader). All values in full precision, 65 bytes per wire.
+ * The wires of one block are collected in columns and written when the block is full,
+ * the number of wires is put into the header when the sink is closed.
+ * Not thread safe: every image (thread) has its own sink.
+ */
+
+public final class WireCatalogSink implements WireSink {
+
+	private final FileOutputStream out;
+	private final FileChannel channel;
+	private final double[][] doubles = new double[WireCatalog.DOUBLES][WireCatalog.BLOCK];
+	private final int[][] ints = new int[WireCatalog.INTS][WireCatalog.BLOCK];
+	private final byte[] bent = new byte[WireCatalog.BLOCK];
+	private final ByteBuffer buffer = ByteBuffer.allocate((int) WireCatalog.BLOCK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+	private int n = 0;			// wires in the current block
+	private long count = 0;
+
+	public WireCatalogSink(String path, GenerationParameters params) throws IOException {
+
+		this.out = new FileOutputStream(path);
+		this.channel = out.getChannel();
+		ByteBuffer h = ByteBuffer.allocate(WireCatalog.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		h.putLong(0, WireCatalog.MAGIC);
+		h.putInt(8, WireCatalog.VERSION);
+		h.putInt(12, WireCatalog.BLOCK);
+		h.putLong(16, 0);					// number of wires, see close()
+		h.putLong(24, params.getSeed());
+		h.putInt(32, params.getImageSize());
+		h.putDouble(40, params.getMinLength());
+		h.putDouble(48, params.getMaxLength());
+		h.putDouble(56, params.getMinWidth());
+		h.putDouble(64, params.getMaxWidth());
+		h.putDouble(72, params.getMaxOpeningAngle());
+		h.put(80, (byte) (params.isAllowOutside() ? 1 : 0));
+		h.put(81, (byte) (params.isAnalyticPlacement() ? 1 : 0));
+		boolean by_list = params.getLengthDistribution()!=null || params.getWidthDistribution()!=null || params.getAlphaDistribution()!=null;
+		h.put(82, (byte) (by_list ? 1 : 0));
+		try {
+			write(h);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(Wire draht) throws IOException {
+
+		doubles[0][n] = draht.getLength();
+		doubles[1][n] = draht.getWidth();
+		doubles[2][n] = draht.getR();
+		doubles[3][n] = draht.getAlpha();
+		doubles[4][n] = draht.getPhi();
+		ints[0][n] = draht.getX1();
+		ints[1][n] = draht.getY1();
+		ints[2][n] = draht.getX2();
+		ints[3][n] = draht.getY2();
+		ints[4][n] = draht.getmx();
+		ints[5][n] = draht.getmy();
+		bent[n] = (byte) (draht.isBent() ? 1 : 0);
+		n++;
+		count++;
+		if (n==WireCatalog.BLOCK) flushBlock();
+	}
+
+	private void flushBlock() throws IOException {
+
+		// column by column, every column has n values
+		buffer.clear();
+		for (double[] column : doubles){
+			for (int i = 0; i < n; i++) buffer.putDouble(column[i]);
+		}
+		for (int[] column : ints){
+			for (int i = 0; i < n; i++) buffer.putInt(column[i]);
+		}
+		buffer.put(bent, 0, n);
+		buffer.flip();
+		write(buffer);
+		n = 0;
+	}
+
+	private void write(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) channel.write(data);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (n > 0) flushBlock();
+			ByteBuffer c = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			c.putLong(0, count);
+			for (long position = 16; c.hasRemaining();) position += channel.write(c, position);
+		} finally {
+			out.close();
+		}
+	}
+
+}
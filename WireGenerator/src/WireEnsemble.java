@@ -0,0 +1,94 @@
+import java.io.File;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+ * Monte Carlo ensemble mode: every number of wires of the image sequence is created
+ * realizations_per_n times, each realization with its own random stream.
+ *
+ * Every realization is one task, all tasks of all numbers are shared by the threads of the WireScheduler.
+ * The images are only labeled, nothing is saved or kept. As soon as all realizations
+ * of a number are done, mean, standard deviation and 95% confidence interval of region count,
+ * coverage and percolation are written to 00-ensemble_results.txt (in the order of the sequence).
+ */
+
+public class WireEnsemble {
+
+	private final GenerationParameters params;
+	private final int n_threads;
+
+	// results file, rows are written in the order of the image sequence
+	private final String filename_results;
+	private int next_row = 0;
+
+	public WireEnsemble(GenerationParameters params, int n_threads){
+		this.params = params;
+		this.n_threads = Math.max(1, n_threads);
+		this.filename_results = params.getDestinationPath() + "00-ensemble_results.txt";
+	}
+
+	public EnsembleResult[] run(){
+
+		final int images = params.getNumberOfImages();
+		final int realizations = params.getRealizationsPerN();
+		final int tasks = images*realizations;
+		// values[image][quantity][realization]
+		final double[][][] values = new double[images][3][realizations];
+		final AtomicIntegerArray missing = new AtomicIntegerArray(images);
+		for (int i = 0; i < images; i++) missing.set(i, realizations);
+		final EnsembleResult[] results = new EnsembleResult[images];
+		// if there are less tasks than threads, drawing and labeling of each image are split up too
+		final int labeling_threads = Math.max(1, n_threads/tasks);
+
+		new File(filename_results).delete();
+		Wire_Generator_.WriteToFile(filename_results, "#wires" + '\t' + "n" + '\t' + "#CR mean" + '\t' + "#CR std" + '\t' + "#CR ci95"
+				+ '\t' + "cov. mean" + '\t' + "cov. std" + '\t' + "cov. ci95" + '\t' + "perc. mean" + '\t' + "perc. std" + '\t' + "perc. ci95");
+
+		WireScheduler.run("ensemble", tasks, new WireScheduler.Task() {
+			@Override
+			public void run(int k) {
+				// realizations of the same number are next to each other
+				int i = k / realizations;
+				int r = k % realizations;
+				int number = params.getNumberOfWires(i);
+				RunMetrics.Timer timer = RunMetrics.current().start("ensemble");
+				BitCanvas picture = Wire_Generator_.DrawPicture(params, number, r, labeling_threads);
+				LabelingResult l = ConnectedComponents.label(picture, labeling_threads, false);
+				timer.stop();
+				values[i][EnsembleResult.REGIONS][r] = l.getCount();
+				values[i][EnsembleResult.COVERAGE][r] = l.getCoverage();
+				values[i][EnsembleResult.PERCOLATION][r] = l.getPercolation();
+				if (missing.decrementAndGet(i)==0){
+					results[i] = new EnsembleResult(number, values[i]);
+					values[i] = null;
+					System.out.println("Ensemble of "+number+" wires done ("+realizations+" images)");
+					writeRows(results);
+				}
+			}
+		});
+		return results;
+	}
+
+	private synchronized void writeRows(EnsembleResult[] results){
+
+		// everything that is done without a gap before it
+		StringBuilder text = new StringBuilder();
+		while (next_row < results.length && results[next_row]!=null){
+			EnsembleResult r = results[next_row];
+			if (text.length() > 0) text.append('\n');
+			text.append(r.getNumber()).append('\t').append(r.getRealizations());
+			for (int q = EnsembleResult.REGIONS; q <= EnsembleResult.PERCOLATION; q++){
+				text.append('\t').append(round(r.getMean(q))).append('\t').append(round(r.getStd(q))).append('\t').append(round(r.getConfidence(q)));
+			}
+			next_row++;
+		}
+		if (text.length() > 0){
+			Wire_Generator_.WriteToFile(filename_results, text.toString());
+		}
+	}
+
+	private static double round(double value){
+		// 4 digits
+		return Math.round(value*10000)/10000.0;
+	}
+
+}
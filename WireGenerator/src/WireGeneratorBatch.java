@@ -0,0 +1,119 @@
+import java.io.File;
+
+import org.ini4j.Ini;
+
+import ij.Prefs;
+
+/*
+ * Headless entry point for compute nodes (no ImageJ window, no dialog, no display).
+ *
+ * Usage: java -Djava.awt.headless=true -cp ... WireGeneratorBatch <configfile> [key=value ...]
+ *
+ * The configfile is the same one the plugin uses, every key of the [Parameters] section
+ * can be overridden on the command line, e.g. n_start=100 n_end=1000 seed=42 perform_fcr=true
+ * The overrides are not written back into the configfile.
+ *
+ * The images run through generation, skeletonize and FCR (as configured) in the streaming
+ * pipeline, they are saved but never kept in memory or shown.
+ * With geometric_percolation=true only the clusters of the wire geometry are calculated
+ * (no images, see WireNetwork).
+ * With realizations_per_n > 1 only the statistics of several images per number are written
+ * (see WireEnsemble).
+ * With threshold_search=true the critical number of wires between n_start and n_end is searched
+ * (see ThresholdSearch).
+ * With nested_sweep=true every image is the previous one plus n_step wires (one canvas for all).
+ * With replay_path set the saved wires of earlier runs are drawn again (see WireReplay).
+ * With cache_size_mb > 0 images and results are kept in destinationpath/00-cache, a run with the
+ * same parameters, seed and number of wires takes them from there (see WireCache).
+ * With tile_size > 0 the images are drawn tile by tile into tiled BigTIFF files (see TiledRenderer),
+ * for images too big for the memory.
+ *
+ * Timing and throughput of the run are written to 00-run_report.json (see RunMetrics).
+ *
+ * Exit status: 0 = done, 1 = error during the run, 2 = wrong arguments or parameters
+ */
+
+public class WireGeneratorBatch {
+
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_FAILED = 1;
+	public static final int EXIT_USAGE = 2;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		System.exit(run(args));
+	}
+
+	public static int run(String[] args) {
+
+		if (args.length < 1){
+			System.err.println("Usage: WireGeneratorBatch <configfile> [key=value ...]");
+			return EXIT_USAGE;
+		}
+
+		String config_path = args[0];
+		if (!new File(config_path).isFile()){
+			System.err.println("Configfile not found: " + config_path);
+			return EXIT_USAGE;
+		}
+		Ini ini = Wire_Generator_.LoadConfigFile(config_path);
+
+		// command line overrides
+		for (int i = 1; i < args.length; i++){
+			int split = args[i].indexOf('=');
+			if (split <= 0){
+				System.err.println("Expected key=value but found: " + args[i]);
+				return EXIT_USAGE;
+			}
+			ini.put("Parameters", args[i].substring(0, split).trim(), args[i].substring(split+1).trim());
+		}
+
+		final GenerationParameters params;
+		try{
+			params = Wire_Generator_.LoadParameters(ini);
+		} catch (IllegalArgumentException e){
+			System.err.println("Invalid parameters: " + e.getMessage());
+			return EXIT_USAGE;
+		}
+		System.out.println("Random seed: " + params.getSeed());
+
+		RunMetrics metrics = RunMetrics.begin();
+		boolean write_failed = false;
+		try{
+			if (params.isReplay()){
+				new WireReplay(params, ini, Prefs.getThreads()).run();
+			} else if (params.isThresholdSearch()){
+				new ThresholdSearch(params, Prefs.getThreads()).run();
+			} else if (params.isEnsemble()){
+				new WireEnsemble(params, Prefs.getThreads()).run();
+			} else if (params.isGeometricPercolation()){
+				Wire_Generator_.PerformGeometricPercolation(params, Prefs.getThreads());
+			} else if (params.isTiled()){
+				TiledRenderer.run(params);
+			} else if (params.isNestedSweep()){
+				Wire_Generator_.PerformNestedSweep(params, Prefs.getThreads(), null, null);
+			} else {
+				new WirePipeline(params, Prefs.getThreads()).run();
+			}
+		} catch (RuntimeException e){
+			System.err.println("Generation failed: " + e.getMessage());
+			return EXIT_FAILED;
+		} finally {
+			// the images still in the queue are written before the report
+			try {
+				SliceWriter.flush();
+			} catch (WireTaskException e){
+				System.err.println("Writing failed: " + e.getMessage());
+				write_failed = true;
+			}
+			metrics.finish();
+			metrics.write(params.getDestinationPath() + "00-run_report.json");
+		}
+		if (write_failed) return EXIT_FAILED;
+
+		System.out.println(metrics.summary());
+		System.out.println("finished all");
+		return EXIT_OK;
+	}
+
+}
@@ -0,0 +1,323 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Percolation analysis directly on the wire geometry, without drawing anything.
+ *
+ * Two wires touch if the distance between their center lines (segment or circular arc)
+ * is not bigger than the sum of their half widths. The distances are calculated exactly
+ * (the same shapes the WireRasterizer draws: capsules and annular sectors with round caps).
+ * Only wires in the same cell of a uniform grid are compared, and the touching wires are
+ * joined with a union-find. The result are the clusters of the wire network, independent of
+ * any image resolution.
+ */
+
+public final class WireNetwork {
+
+	// candidates are only tested in the first grid cell both boxes share (no pair is tested twice)
+	private final int n;
+	private final boolean[] bent;
+	private final double[] ax, ay, bx, by;	// straight: P1, P2  bent: midpoint, (r, -)
+	private final double[] phi, alpha;		// bent only
+	private final double[] c1, s1, c2, s2;	// bent: cos/sin of the start and end angle
+	private final double[] e1x, e1y, e2x, e2y;	// bent: end points
+	private final double[] half;			// width/2
+	private final double[] x_min, y_min, x_max, y_max;	// box of the wire including the width
+
+	private WireNetwork(Wire[] wires){
+
+		n = wires.length;
+		bent = new boolean[n];
+		ax = new double[n]; ay = new double[n]; bx = new double[n]; by = new double[n];
+		phi = new double[n]; alpha = new double[n]; half = new double[n];
+		c1 = new double[n]; s1 = new double[n]; c2 = new double[n]; s2 = new double[n];
+		e1x = new double[n]; e1y = new double[n]; e2x = new double[n]; e2y = new double[n];
+		x_min = new double[n]; y_min = new double[n]; x_max = new double[n]; y_max = new double[n];
+		for (int i = 0; i < n; i++){
+			Wire w = wires[i];
+			bent[i] = w.isBent();
+			half[i] = w.getWidth()/2;
+			if (bent[i]){
+				ax[i] = w.getmx(); ay[i] = w.getmy(); bx[i] = w.getR();
+				phi[i] = w.getPhi(); alpha[i] = w.getAlpha();
+				c1[i] = Math.cos(phi[i]); s1[i] = Math.sin(phi[i]);
+				c2[i] = Math.cos(phi[i]+alpha[i]); s2[i] = Math.sin(phi[i]+alpha[i]);
+				e1x[i] = ax[i] - bx[i]*c1[i]; e1y[i] = ay[i] + bx[i]*s1[i];
+				e2x[i] = ax[i] - bx[i]*c2[i]; e2y[i] = ay[i] + bx[i]*s2[i];
+			} else {
+				ax[i] = w.getX1(); ay[i] = w.getY1(); bx[i] = w.getX2(); by[i] = w.getY2();
+			}
+			double[] b = w.getBounds();
+			x_min[i] = b[0]-half[i]; y_min[i] = b[1]-half[i];
+			x_max[i] = b[2]+half[i]; y_max[i] = b[3]+half[i];
+		}
+	}
+
+	public static WireNetworkResult analyze(Wire[] wires, int image_size, int n_threads){
+
+		final WireNetwork net = new WireNetwork(wires);
+		final int n = net.n;
+		if (n==0){
+			return new WireNetworkResult(0, 0, 0, 0, false);
+		}
+
+		// grid: cell size about the size of a wire, but not more cells than 4 per wire
+		double gx0 = Double.POSITIVE_INFINITY, gy0 = Double.POSITIVE_INFINITY;
+		double gx1 = Double.NEGATIVE_INFINITY, gy1 = Double.NEGATIVE_INFINITY;
+		double extent = 0;
+		for (int i = 0; i < n; i++){
+			gx0 = Math.min(gx0, net.x_min[i]); gy0 = Math.min(gy0, net.y_min[i]);
+			gx1 = Math.max(gx1, net.x_max[i]); gy1 = Math.max(gy1, net.y_max[i]);
+			extent += Math.max(net.x_max[i]-net.x_min[i], net.y_max[i]-net.y_min[i]);
+		}
+		double cell = Math.max(1, extent/n);
+		while (((gx1-gx0)/cell+1)*((gy1-gy0)/cell+1) > 4.0*n+16){
+			cell *= 1.5;
+		}
+		final double origin_x = gx0;
+		final double origin_y = gy0;
+		final double cell_size = cell;
+		final int cells_x = (int)((gx1-gx0)/cell)+1;
+		final int cells_y = (int)((gy1-gy0)/cell)+1;
+
+		// cells of every wire box
+		final int[] c_x0 = new int[n], c_y0 = new int[n], c_x1 = new int[n], c_y1 = new int[n];
+		final int[] cell_start = new int[cells_x*cells_y+1];
+		for (int i = 0; i < n; i++){
+			c_x0[i] = (int)((net.x_min[i]-origin_x)/cell_size);
+			c_y0[i] = (int)((net.y_min[i]-origin_y)/cell_size);
+			c_x1[i] = Math.min(cells_x-1, (int)((net.x_max[i]-origin_x)/cell_size));
+			c_y1[i] = Math.min(cells_y-1, (int)((net.y_max[i]-origin_y)/cell_size));
+			for (int cy = c_y0[i]; cy <= c_y1[i]; cy++){
+				for (int cx = c_x0[i]; cx <= c_x1[i]; cx++){
+					cell_start[cy*cells_x+cx+1]++;
+				}
+			}
+		}
+		for (int c = 0; c < cells_x*cells_y; c++){
+			cell_start[c+1] += cell_start[c];
+		}
+		final int[] cell_wires = new int[cell_start[cells_x*cells_y]];
+		int[] fill = Arrays.copyOf(cell_start, cells_x*cells_y);
+		for (int i = 0; i < n; i++){
+			for (int cy = c_y0[i]; cy <= c_y1[i]; cy++){
+				for (int cx = c_x0[i]; cx <= c_x1[i]; cx++){
+					cell_wires[fill[cy*cells_x+cx]++] = i;
+				}
+			}
+		}
+
+		// test all pairs in every cell, every part collects its contacts
+		final int n_cells = cells_x*cells_y;
+		final int[][] contacts = new int[Math.max(1, n_threads)][];
+		final int[] n_contacts = new int[contacts.length];
+		final AtomicInteger next = new AtomicInteger(0);
+		final int chunk = 64;
+		WireScheduler.split("contact search", contacts.length, new WireScheduler.Task() {
+			@Override
+			public void run(int t) {
+				int[] pairs = new int[1024];
+				int np = 0;
+				for (int c0 = next.getAndAdd(chunk); c0 < n_cells; c0 = next.getAndAdd(chunk)){
+					for (int c = c0; c < Math.min(n_cells, c0+chunk); c++){
+						int cx = c % cells_x;
+						int cy = c / cells_x;
+						for (int k = cell_start[c]; k < cell_start[c+1]; k++){
+							int a = cell_wires[k];
+							for (int m = k+1; m < cell_start[c+1]; m++){
+								int b = cell_wires[m];
+								if (Math.max(c_x0[a], c_x0[b])!=cx || Math.max(c_y0[a], c_y0[b])!=cy) continue;
+								if (net.x_max[a] < net.x_min[b] || net.x_max[b] < net.x_min[a] || net.y_max[a] < net.y_min[b] || net.y_max[b] < net.y_min[a]) continue;
+								if (net.touch(a, b)){
+									if (np+2 > pairs.length) pairs = Arrays.copyOf(pairs, 2*pairs.length);
+									pairs[np++] = a;
+									pairs[np++] = b;
+								}
+							}
+						}
+					}
+				}
+				contacts[t] = pairs;
+				n_contacts[t] = np;
+			}
+		});
+
+		// clusters
+		int[] parent = new int[n];
+		for (int i = 0; i < n; i++) parent[i] = i;
+		int total_contacts = 0;
+		for (int t = 0; t < contacts.length; t++){
+			for (int k = 0; k < n_contacts[t]; k += 2){
+				ConnectedComponents.union(parent, contacts[t][k], contacts[t][k+1]);
+			}
+			total_contacts += n_contacts[t]/2;
+		}
+		int[] size = new int[n];
+		byte[] borders = new byte[n];	// 1=top 2=bottom 4=left 8=right
+		int clusters = 0;
+		int largest = 0;
+		for (int i = 0; i < n; i++){
+			int root = ConnectedComponents.find(parent, i);
+			if (root==i) clusters++;
+			size[root]++;
+			largest = Math.max(largest, size[root]);
+			if (net.y_min[i] <= 0) borders[root] |= 1;
+			if (net.y_max[i] >= image_size-1) borders[root] |= 2;
+			if (net.x_min[i] <= 0) borders[root] |= 4;
+			if (net.x_max[i] >= image_size-1) borders[root] |= 8;
+		}
+		boolean spanning = false;
+		for (int i = 0; i < n; i++){
+			if ((borders[i] & 3)==3 || (borders[i] & 12)==12){
+				spanning = true;
+				break;
+			}
+		}
+		return new WireNetworkResult(n, total_contacts, clusters, largest, spanning);
+	}
+
+	boolean touch(int a, int b){
+
+		double d = half[a]+half[b];
+		double d2 = d*d;
+		if (!bent[a] && !bent[b]){
+			return segmentSegment2(ax[a], ay[a], bx[a], by[a], ax[b], ay[b], bx[b], by[b]) <= d2;
+		}
+		if (bent[a] && bent[b]){
+			return arcArc(a, b) <= d;
+		}
+		int s = bent[a] ? b : a;
+		int c = bent[a] ? a : b;
+		return segmentArc(s, c) <= d;
+	}
+
+	// ---- distances ----
+
+	private double segmentArc(int s, int c){
+
+		double x1 = ax[s], y1 = ay[s], x2 = bx[s], y2 = by[s];
+		double mx = ax[c], my = ay[c], r = bx[c];
+		// end points of each shape to the other shape
+		double best = Math.min(pointArc(x1, y1, c), pointArc(x2, y2, c));
+		best = Math.min(best, Math.sqrt(pointSegment2(e1x[c], e1y[c], x1, y1, x2, y2)));
+		best = Math.min(best, Math.sqrt(pointSegment2(e2x[c], e2y[c], x1, y1, x2, y2)));
+		if (best==0) return 0;
+
+		double dx = x2-x1, dy = y2-y1;
+		double l2 = dx*dx+dy*dy;
+		if (l2 > 0){
+			// crossings of the segment with the circle
+			double fx = x1-mx, fy = y1-my;
+			double b = fx*dx+fy*dy;
+			double disc = b*b - l2*(fx*fx+fy*fy-r*r);
+			if (disc >= 0){
+				double sq = Math.sqrt(disc);
+				for (int k = -1; k <= 1; k += 2){
+					double t = (-b + k*sq)/l2;
+					if (t >= 0 && t <= 1 && onArc(x1+t*dx, y1+t*dy, c)) return 0;
+				}
+			}
+			// closest point of the line to the midpoint, the arc point in that direction
+			double t = -b/l2;
+			if (t > 0 && t < 1){
+				double px = x1+t*dx, py = y1+t*dy;
+				double dist = Math.sqrt((px-mx)*(px-mx)+(py-my)*(py-my));
+				if (dist > 0 && onArc(px, py, c)){
+					best = Math.min(best, Math.abs(dist-r));
+				}
+				if (dist > 0 && onArc(2*mx-px, 2*my-py, c)){
+					best = Math.min(best, dist+r);
+				}
+			}
+		}
+		return best;
+	}
+
+	private double arcArc(int a, int b){
+
+		double best = Math.min(Math.min(pointArc(e1x[a], e1y[a], b), pointArc(e2x[a], e2y[a], b)),
+				Math.min(pointArc(e1x[b], e1y[b], a), pointArc(e2x[b], e2y[b], a)));
+		if (best==0) return 0;
+
+		double dx = ax[b]-ax[a], dy = ay[b]-ay[a];
+		double dc = Math.sqrt(dx*dx+dy*dy);
+		if (dc==0) return best;		// same midpoint: end points cover it
+		double ux = dx/dc, uy = dy/dc;
+		double r1 = bx[a], r2 = bx[b];
+
+		// crossings of the two circles
+		if (dc <= r1+r2 && dc >= Math.abs(r1-r2)){
+			double along = (dc*dc + r1*r1 - r2*r2)/(2*dc);
+			double h = Math.sqrt(Math.max(0, r1*r1-along*along));
+			double px = ax[a]+along*ux, py = ay[a]+along*uy;
+			for (int k = -1; k <= 1; k += 2){
+				double ix = px - k*h*uy, iy = py + k*h*ux;
+				if (onArc(ix, iy, a) && onArc(ix, iy, b)) return 0;
+			}
+		}
+		// points on the line through both midpoints
+		for (int s = -1; s <= 1; s += 2){
+			double p1x = ax[a]+s*r1*ux, p1y = ay[a]+s*r1*uy;
+			if (!onArc(p1x, p1y, a)) continue;
+			for (int t = -1; t <= 1; t += 2){
+				double p2x = ax[b]+t*r2*ux, p2y = ay[b]+t*r2*uy;
+				if (!onArc(p2x, p2y, b)) continue;
+				best = Math.min(best, Math.sqrt((p1x-p2x)*(p1x-p2x)+(p1y-p2y)*(p1y-p2y)));
+			}
+		}
+		return best;
+	}
+
+	private double pointArc(double x, double y, int c){
+
+		double mx = ax[c], my = ay[c], r = bx[c];
+		double ux = mx-x, uy = y-my;
+		double dist = Math.sqrt(ux*ux+uy*uy);
+		if (dist > 0 && onArc(x, y, c)){
+			return Math.abs(dist-r);
+		}
+		// otherwise the nearest end point
+		double d1 = (x-e1x[c])*(x-e1x[c])+(y-e1y[c])*(y-e1y[c]);
+		double d2 = (x-e2x[c])*(x-e2x[c])+(y-e2y[c])*(y-e2y[c]);
+		double d = Math.sqrt(Math.min(d1, d2));
+		return dist > 0 ? d : Math.min(d, r);
+	}
+
+	private boolean onArc(double x, double y, int c){
+
+		// is the direction from the midpoint to the point inside the opening angle?
+		// same half plane test as in the WireRasterizer (no trigonometry)
+		double ux = ax[c]-x, uy = y-ay[c];
+		boolean start = c1[c]*uy - s1[c]*ux >= 0;
+		boolean end = ux*s2[c] - uy*c2[c] >= 0;
+		return alpha[c] <= Math.PI ? (start && end) : (start || end);
+	}
+
+	private static double pointSegment2(double px, double py, double x1, double y1, double x2, double y2){
+
+		double dx = x2-x1, dy = y2-y1;
+		double l2 = dx*dx+dy*dy;
+		double t = l2==0 ? 0 : ((px-x1)*dx+(py-y1)*dy)/l2;
+		t = Math.max(0, Math.min(1, t));
+		double qx = x1+t*dx-px, qy = y1+t*dy-py;
+		return qx*qx+qy*qy;
+	}
+
+	private static double segmentSegment2(double p1x, double p1y, double q1x, double q1y, double p2x, double p2y, double q2x, double q2y){
+
+		// crossing segments have distance 0
+		double d1x = q1x-p1x, d1y = q1y-p1y;
+		double d2x = q2x-p2x, d2y = q2y-p2y;
+		double denom = d1x*d2y - d1y*d2x;
+		if (denom != 0){
+			double rx = p2x-p1x, ry = p2y-p1y;
+			double s = (rx*d2y - ry*d2x)/denom;
+			double t = (rx*d1y - ry*d1x)/denom;
+			if (s >= 0 && s <= 1 && t >= 0 && t <= 1) return 0;
+		}
+		// otherwise the distance is at one of the end points
+		return Math.min(Math.min(pointSegment2(p1x, p1y, p2x, p2y, q2x, q2y), pointSegment2(q1x, q1y, p2x, p2y, q2x, q2y)),
+				Math.min(pointSegment2(p2x, p2y, p1x, p1y, q1x, q1y), pointSegment2(q2x, q2y, p1x, p1y, q1x, q1y)));
+	}
+
+}
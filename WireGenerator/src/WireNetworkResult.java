@@ -0,0 +1,46 @@
+/*
+ * This Class holds the clusters WireNetwork found in one set of wires
+ */
+
+public class WireNetworkResult {
+
+	private final int wires;
+	private final int contacts;		// touching pairs of wires
+	private final int clusters;		// groups of connected wires (single wires count too)
+	private final int largest;		// wires in the biggest cluster
+	private final boolean spanning;	// one cluster touches top+bottom or left+right border
+
+	public WireNetworkResult(int wires, int contacts, int clusters, int largest, boolean spanning){
+		this.wires = wires;
+		this.contacts = contacts;
+		this.clusters = clusters;
+		this.largest = largest;
+		this.spanning = spanning;
+	}
+
+	public int getWires(){
+		return wires;
+	}
+
+	public int getContacts(){
+		return contacts;
+	}
+
+	public int getClusters(){
+		return clusters;
+	}
+
+	public int getLargest(){
+		return largest;
+	}
+
+	public double getLargestFraction(){
+		// biggest cluster / all wires
+		return wires==0 ? 0 : largest/(double)wires;
+	}
+
+	public boolean isSpanning(){
+		return spanning;
+	}
+
+}
@@ -0,0 +1,226 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+
+/*
+ * Streaming mode: every image runs through generation -> skeletonize -> FCR (as configured)
+ * while the next images are already generated. The stages are connected by small bounded queues,
+ * so only a few images per worker thread are in memory at the same time, no matter how long the
+ * image sequence is. An image is dropped as soon as the last stage is done with it.
+ * Nothing is shown or kept, the images are saved by the stages like in the normal mode.
+ * The stages run as tasks of the WireScheduler, which waits on the queues with ForkJoinPool.managedBlock,
+ * so the pool starts other threads while a stage waits. Esc stops the generation and the images
+ * already in the queues are dropped.
+ */
+
+public class WirePipeline {
+
+	private final GenerationParameters params;
+	private final int n_threads;
+
+	// first error of any stage, all other threads stop working after it
+	private volatile Throwable failure = null;
+
+	public WirePipeline(GenerationParameters params, int n_threads){
+		this.params = params;
+		this.n_threads = Math.max(1, n_threads);
+	}
+
+	public FcrResult[] run(){
+
+		final int images = params.getNumberOfImages();
+		final FcrResult[] results = new FcrResult[images];
+		final AtomicInteger ai = new AtomicInteger(0);
+		// if there are less images than threads, drawing and labeling of each image are split up too
+		final int labeling_threads = Math.max(1, n_threads/images);
+
+		// queue between generation and skeletonize/FCR, and between skeletonize and FCR
+		final BlockingQueue<Item> to_skeletonize = params.isPerformSkeletonize() ? new ArrayBlockingQueue<Item>(n_threads) : null;
+		final BlockingQueue<Item> to_fcr = params.isPerformFcr() ? new ArrayBlockingQueue<Item>(n_threads) : null;
+		final BlockingQueue<Item> after_generation = to_skeletonize!=null ? to_skeletonize : to_fcr;
+		final BlockingQueue<Item> after_skeletonize = to_fcr;
+
+		// the stages are tasks of the WireScheduler: n_threads tasks for every stage, which wait on the
+		// queues (the pool starts other threads meanwhile), the progress bar counts the finished images
+		final int stages = 1 + (to_skeletonize!=null ? 1 : 0) + (to_fcr!=null ? 1 : 0);
+		final WireScheduler.Progress progress = new WireScheduler.Progress(images);
+		final AtomicInteger generators = new AtomicInteger(n_threads);
+		final AtomicInteger skeletonizers = new AtomicInteger(n_threads);
+		final FcrResultsWriter results_writer = to_fcr!=null ? new FcrResultsWriter(params) : null;
+
+		try {
+			WireScheduler.run("streaming pipeline", stages*n_threads, progress, new WireScheduler.Task() {
+				@Override
+				public void run(int index) {
+					int stage = index/n_threads;
+					if (stage==0){
+						generate(images, ai, labeling_threads, after_generation, generators, progress);
+					} else if (stage==1 && to_skeletonize!=null){
+						skeletonize(to_skeletonize, after_skeletonize, skeletonizers, progress);
+					} else {
+						fcr(to_fcr, results, results_writer, labeling_threads, progress);
+					}
+				}
+			});
+		} finally {
+			if (results_writer!=null) results_writer.close();
+		}
+
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure!=null) throw new RuntimeException(failure);
+		return results;
+	}
+
+	private void generate(int images, AtomicInteger ai, int labeling_threads, BlockingQueue<Item> next, AtomicInteger generators, WireScheduler.Progress progress){
+
+		try {
+			for (int i = ai.getAndIncrement(); i < images && failure==null; i = ai.getAndIncrement()) {
+				if (IJ.escapePressed()){
+					fail(new WireCancelledException("streaming pipeline canceled after " + i + " of " + images));
+					break;
+				}
+				int number = params.getNumberOfWires(i);
+				BitCanvas picture;
+				try {
+					picture = Wire_Generator_.CreatePicture(params, number, labeling_threads);
+				} catch (Throwable e) {
+					fail(e);
+					break;
+				}
+				if (next!=null){
+					put(next, new Item(i, number, picture));
+				} else {
+					progress.step();
+				}
+			}
+		} catch (Throwable e) {
+			fail(e);
+		} finally {
+			finish(generators, next);
+		}
+	}
+
+	private void skeletonize(BlockingQueue<Item> queue, BlockingQueue<Item> next, AtomicInteger skeletonizers, WireScheduler.Progress progress){
+
+		try {
+			for (Item item = take(queue); item!=Item.END; item = take(queue)) {
+				if (failure!=null) continue;	// just empty the queue
+				try {
+					Wire_Generator_.SkeletonizePicture(item.picture.toByteProcessor(), params, item.number, WireCache.key(params, item.number));
+				} catch (Throwable e) {
+					fail(e);
+					continue;
+				}
+				if (next!=null){
+					put(next, item);
+				} else {
+					progress.step();
+				}
+			}
+		} catch (Throwable e) {
+			fail(e);
+		} finally {
+			finish(skeletonizers, next);
+		}
+	}
+
+	private void fcr(BlockingQueue<Item> queue, FcrResult[] results, FcrResultsWriter results_writer, int labeling_threads, WireScheduler.Progress progress){
+
+		try {
+			for (Item item = take(queue); item!=Item.END; item = take(queue)) {
+				if (failure!=null) continue;
+				try {
+					// only the numbers are kept, not the region image
+					results[item.index] = Wire_Generator_.FCRPicture(item.picture, params, results_writer, item.number, labeling_threads, false, WireCache.key(params, item.number));
+				} catch (Throwable e) {
+					fail(e);
+					continue;
+				}
+				progress.step();
+			}
+		} catch (Throwable e) {
+			fail(e);
+		}
+	}
+
+	private static void put(final BlockingQueue<Item> queue, final Item item) throws InterruptedException {
+
+		// waiting in a task of the pool: managedBlock lets the pool start another thread meanwhile
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+			boolean done = false;
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (!done) queue.put(item);
+				done = true;
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				if (!done) done = queue.offer(item);
+				return done;
+			}
+		});
+	}
+
+	private static Item take(final BlockingQueue<Item> queue) throws InterruptedException {
+
+		final Item[] item = new Item[1];
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+			@Override
+			public boolean block() throws InterruptedException {
+				if (item[0]==null) item[0] = queue.take();
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				if (item[0]==null) item[0] = queue.poll();
+				return item[0]!=null;
+			}
+		});
+		return item[0];
+	}
+
+	private void finish(AtomicInteger running, BlockingQueue<Item> next){
+
+		// the last thread of a stage tells the next stage that there is nothing more to come
+		// (also after an error, so the next stage doesn't wait forever)
+		if (running.decrementAndGet()==0 && next!=null){
+			try {
+				for (int k = 0; k < n_threads; k++) next.put(Item.END);
+			} catch (InterruptedException e) {
+				fail(e);
+			}
+		}
+	}
+
+	private void fail(Throwable e){
+		e.printStackTrace();
+		synchronized (this) {
+			if (failure==null) failure = e;
+		}
+	}
+
+	private static final class Item {
+
+		// marks the end of the image sequence
+		static final Item END = new Item(-1, 0, null);
+
+		final int index;
+		final int number;
+		final BitCanvas picture;
+
+		Item(int index, int number, BitCanvas picture){
+			this.index = index;
+			this.number = number;
+			this.picture = picture;
+		}
+	}
+
+}
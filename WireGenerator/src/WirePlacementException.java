@@ -0,0 +1,15 @@
+/*
+ * Thrown if a wire can't be placed inside the picture
+ * (wires too big for the image size). The caller decides what to do,
+ * instead of shutting down the whole JVM.
+ */
+
+public class WirePlacementException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public WirePlacementException(String message){
+		super(message);
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * This Class is a small, fast random number generator (SplitMix64).
+ * Every image gets its own stream, which is derived from the master seed, the number of wires
+ * and the realization index. So the wires of an image are always the same for the same seed,
+ * no matter how many threads are used or in which order the images are created.
+ * An Object must not be shared between threads (thats the point of it), use split() instead.
+ *
+ * Big images are created in chunks of WIRES_PER_STREAM wires, every chunk has its own stream (forWires),
+ * so the chunks can be created in parallel. Chunk 0 is the stream of forImage().
+ */
+
+public final class WireRandom {
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	// wires of one chunk, see forWires()
+	public static final int WIRES_PER_STREAM = 4096;
+
+	private long state;
+
+	public WireRandom(long seed){
+		this.state = seed;
+	}
+
+	public static WireRandom forImage(long master_seed, int n, int realization){
+
+		// mix the keys one after another, so (n, realization) pairs don't collide
+		long seed = mix64(master_seed + GOLDEN_GAMMA);
+		seed = mix64(seed ^ (n * GOLDEN_GAMMA));
+		seed = mix64(seed + (realization+1) * 0xbf58476d1ce4e5b9L);
+		return new WireRandom(seed);
+	}
+
+	public static WireRandom forWires(long master_seed, int n, int realization, int chunk){
+
+		// stream of the wires chunk*WIRES_PER_STREAM .. (chunk+1)*WIRES_PER_STREAM-1 of an image
+		WireRandom image = forImage(master_seed, n, realization);
+		if (chunk==0) return image;
+		return new WireRandom(mix64(image.state ^ (chunk * 0x94d049bb133111ebL)));
+	}
+
+	public static long newSeed(){
+		// for runs without a given seed
+		return mix64(System.nanoTime() ^ System.currentTimeMillis() * GOLDEN_GAMMA);
+	}
+
+	public WireRandom split(){
+		// independent stream for a sub task
+		return new WireRandom(mix64(nextLong()));
+	}
+
+	public long nextLong(){
+		state += GOLDEN_GAMMA;
+		return mix64(state);
+	}
+
+	public double nextDouble(){
+		// uniform in [0,1) with 53 random bits
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	private static long mix64(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,215 @@
+import java.util.Arrays;
+
+import ij.process.ByteProcessor;
+
+/*
+ * Draws wires directly as horizontal pixel spans (scanlines).
+ * A straight wire is a capsule: every pixel closer than width/2 to the line P1-P2.
+ * A bent wire is an annular sector: every pixel between r-width/2 and r+width/2 from the midpoint
+ * inside the opening angle, plus a round cap at both ends (like the straight wires).
+ * For every row the covered x range is calculated exactly, so there are no overdrawn joints
+ * and no seams between the sections of a bent wire. Pixel (x,y) is white if its center is covered.
+ */
+
+public final class WireRasterizer {
+
+	private WireRasterizer(){
+	}
+
+	public static long draw(Wire draht, final ByteProcessor picture){
+
+		// returns the number of pixels drawn (pixels of other wires are counted again)
+		final byte[] pixels = (byte[]) picture.getPixels();
+		final int width = picture.getWidth();
+		final long[] drawn = new long[1];
+		draw(draht, new SpanCanvas(){
+			@Override
+			public void fillSpan(int y, int x0, int x1){
+				// Wires are always white
+				int offset = y*width;
+				Arrays.fill(pixels, offset+x0, offset+x1+1, (byte) 255);
+				drawn[0] += x1-x0+1;
+			}
+		}, 0, 0, width-1, picture.getHeight()-1);
+		return drawn[0];
+	}
+
+	public static void draw(Wire draht, SpanCanvas canvas, int x_min, int y_min, int x_max, int y_max){
+
+		// only the region x_min..x_max, y_min..y_max (inclusive) is drawn
+		double radius = draht.getWidth()/2;
+		if (!draht.isBent()){
+			drawCapsule(draht.getX1(), draht.getY1(), draht.getX2(), draht.getY2(), radius, canvas, x_min, y_min, x_max, y_max);
+		} else {
+			drawArc(draht.getmx(), draht.getmy(), draht.getR(), draht.getPhi(), draht.getAlpha(), radius, canvas, x_min, y_min, x_max, y_max);
+		}
+	}
+
+	private static void drawCapsule(double x1, double y1, double x2, double y2, double radius, SpanCanvas canvas, int x_min, int y_min, int x_max, int y_max){
+
+		int row_start = Math.max(y_min, (int) Math.ceil(Math.min(y1, y2)-radius));
+		int row_end = Math.min(y_max, (int) Math.floor(Math.max(y1, y2)+radius));
+
+		double dx = x2-x1;
+		double dy = y2-y1;
+		double length = Math.sqrt(dx*dx+dy*dy);
+		double r2 = radius*radius;
+
+		for (int y = row_start; y <= row_end; y++){
+			double left = Double.POSITIVE_INFINITY;
+			double right = Double.NEGATIVE_INFINITY;
+
+			// round caps at both ends
+			double h = y-y1;
+			if (h*h <= r2){
+				double w = Math.sqrt(r2-h*h);
+				left = Math.min(left, x1-w);
+				right = Math.max(right, x1+w);
+			}
+			h = y-y2;
+			if (h*h <= r2){
+				double w = Math.sqrt(r2-h*h);
+				left = Math.min(left, x2-w);
+				right = Math.max(right, x2+w);
+			}
+
+			// the rectangle in between: 0 <= projection on the line <= length and |distance to the line| <= radius
+			if (length > 0){
+				double ux = dx/length;
+				double uy = dy/length;
+				double lo = Double.NEGATIVE_INFINITY;
+				double hi = Double.POSITIVE_INFINITY;
+				// projection: ux*(x-x1) + uy*(y-y1)
+				double c = uy*(y-y1) - ux*x1;
+				if (ux != 0){
+					double a = -c/ux;
+					double b = (length-c)/ux;
+					lo = Math.max(lo, Math.min(a, b));
+					hi = Math.min(hi, Math.max(a, b));
+				} else if (c < 0 || c > length){
+					lo = Double.POSITIVE_INFINITY;
+				}
+				// distance: -uy*(x-x1) + ux*(y-y1)
+				c = ux*(y-y1) + uy*x1;
+				if (uy != 0){
+					double a = (c-radius)/uy;
+					double b = (c+radius)/uy;
+					lo = Math.max(lo, Math.min(a, b));
+					hi = Math.min(hi, Math.max(a, b));
+				} else if (c < -radius || c > radius){
+					lo = Double.POSITIVE_INFINITY;
+				}
+				if (lo <= hi){
+					left = Math.min(left, lo);
+					right = Math.max(right, hi);
+				}
+			}
+
+			// the capsule is convex, so the union of the three parts is one span
+			fill(canvas, y, left, right, x_min, x_max);
+		}
+	}
+
+	private static void drawArc(double mx, double my, double r, double phi, double alpha, double radius, SpanCanvas canvas, int x_min, int y_min, int x_max, int y_max){
+
+		// the wire runs through (mx - r*cos(a), my + r*sin(a)) for a = phi .. phi+alpha
+		double outer = r+radius;
+		double inner = Math.max(0, r-radius);
+		double outer2 = outer*outer;
+		double inner2 = inner*inner;
+
+		// directions of the start and the end of the arc (in the same mirrored coordinates)
+		double c1 = Math.cos(phi);
+		double s1 = Math.sin(phi);
+		double c2 = Math.cos(phi+alpha);
+		double s2 = Math.sin(phi+alpha);
+		boolean convex = alpha <= Math.PI;
+
+		// end points for the caps
+		double ex1 = mx - r*c1;
+		double ey1 = my + r*s1;
+		double ex2 = mx - r*c2;
+		double ey2 = my + r*s2;
+		double r2 = radius*radius;
+
+		int row_start = Math.max(y_min, (int) Math.ceil(my-outer));
+		int row_end = Math.min(y_max, (int) Math.floor(my+outer));
+
+		for (int y = row_start; y <= row_end; y++){
+			double h = y-my;
+
+			// Sector test for a pixel with u = (mx-x, y-my):
+			// start side: cos(phi)*(y-my) + sin(phi)*(x-mx) >= 0
+			// end side:  -sin(phi+alpha)*(x-mx) - cos(phi+alpha)*(y-my) >= 0
+			// both for alpha <= 180 deg, one of them for bigger angles.
+			// Each one is a half line on the row.
+			double lo1, hi1, lo2, hi2;
+			if (s1 > 0){
+				lo1 = mx - c1*h/s1; hi1 = Double.POSITIVE_INFINITY;
+			} else if (s1 < 0){
+				lo1 = Double.NEGATIVE_INFINITY; hi1 = mx - c1*h/s1;
+			} else if (c1*h >= 0){
+				lo1 = Double.NEGATIVE_INFINITY; hi1 = Double.POSITIVE_INFINITY;
+			} else {
+				lo1 = Double.POSITIVE_INFINITY; hi1 = Double.NEGATIVE_INFINITY;
+			}
+			if (s2 < 0){
+				lo2 = mx - c2*h/s2; hi2 = Double.POSITIVE_INFINITY;
+			} else if (s2 > 0){
+				lo2 = Double.NEGATIVE_INFINITY; hi2 = mx - c2*h/s2;
+			} else if (-c2*h >= 0){
+				lo2 = Double.NEGATIVE_INFINITY; hi2 = Double.POSITIVE_INFINITY;
+			} else {
+				lo2 = Double.POSITIVE_INFINITY; hi2 = Double.NEGATIVE_INFINITY;
+			}
+
+			// ring: one span through the middle or a left and a right part
+			if (h*h <= outer2){
+				double wo = Math.sqrt(outer2-h*h);
+				if (h*h < inner2){
+					double wi = Math.sqrt(inner2-h*h);
+					fillSector(canvas, y, mx-wo, mx-wi, convex, lo1, hi1, lo2, hi2, x_min, x_max);
+					fillSector(canvas, y, mx+wi, mx+wo, convex, lo1, hi1, lo2, hi2, x_min, x_max);
+				} else {
+					fillSector(canvas, y, mx-wo, mx+wo, convex, lo1, hi1, lo2, hi2, x_min, x_max);
+				}
+			}
+
+			// round caps
+			double hc = y-ey1;
+			if (hc*hc <= r2){
+				double w = Math.sqrt(r2-hc*hc);
+				fill(canvas, y, ex1-w, ex1+w, x_min, x_max);
+			}
+			hc = y-ey2;
+			if (hc*hc <= r2){
+				double w = Math.sqrt(r2-hc*hc);
+				fill(canvas, y, ex2-w, ex2+w, x_min, x_max);
+			}
+		}
+	}
+
+	private static void fillSector(SpanCanvas canvas, int y, double left, double right, boolean convex, double lo1, double hi1, double lo2, double hi2, int x_min, int x_max){
+
+		if (convex){
+			// inside both half planes
+			fill(canvas, y, Math.max(left, Math.max(lo1, lo2)), Math.min(right, Math.min(hi1, hi2)), x_min, x_max);
+		} else {
+			// inside one of the half planes (overlap is drawn twice, that doesn't matter)
+			fill(canvas, y, Math.max(left, lo1), Math.min(right, hi1), x_min, x_max);
+			fill(canvas, y, Math.max(left, lo2), Math.min(right, hi2), x_min, x_max);
+		}
+	}
+
+	private static void fill(SpanCanvas canvas, int y, double left, double right, int x_min, int x_max){
+
+		// all pixel centers between left and right
+		if (!(left <= right)) return;
+		int x0 = (int) Math.max(x_min, Math.ceil(left));
+		int x1 = (int) Math.min(x_max, Math.floor(right));
+		if (x0 <= x1){
+			canvas.fillSpan(y, x0, x1);
+		}
+	}
+
+}
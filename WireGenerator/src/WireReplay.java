@@ -0,0 +1,224 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.ini4j.Ini;
+
+/*
+ * Replay mode: the wires of saved wire files are drawn again, nothing is generated.
+ * So the same wires can be looked at with another resolution (replay_scale: positions, lengths and
+ * widths times the factor, the image too), with thicker or thinner wires (replay_width_scale)
+ * or with other skeletonize / FCR settings.
+ *
+ * replay_path is one wire file or a directory, where every "_wire-catalog.bin" is replayed
+ * (a "_wire-information.txt" only if there is no catalog of the same image: the text rounds
+ * length, width and r to whole pixels and the angles to 0.1 deg).
+ * Every file is one image (one task of the WireScheduler), it is saved and runs through
+ * skeletonize and FCR like in the streaming pipeline. The images get the name of their wire file
+ * (with the scaled lengths, widths and size in it), so the destination has to be another directory.
+ * The FCR results have one row per file, in the order of the files.
+ */
+
+public class WireReplay {
+
+	private static final String CATALOG = "_wire-catalog.bin";
+	private static final String TEXT = "_wire-information.txt";
+	private static final Pattern SIZE = Pattern.compile("_size-(\\d+)");
+	private static final Pattern LENGTH = Pattern.compile("_length-(\\d+)-(\\d+)");
+	private static final Pattern WIDTH = Pattern.compile("_width-(\\d+)-(\\d+)");
+
+	private final GenerationParameters params;
+	private final Ini ini;
+	private final int n_threads;
+
+	public WireReplay(GenerationParameters params, Ini ini, int n_threads){
+		// ini: the one params was made from, for the parameters of every image
+		this.params = params;
+		this.ini = ini;
+		this.n_threads = Math.max(1, n_threads);
+	}
+
+	public FcrResult[] run(){
+
+		final File[] files = findFiles(new File(params.getReplayPath()));
+		final FcrResult[] results = new FcrResult[files.length];
+		if (files.length==0){
+			System.err.println("No saved wires in " + params.getReplayPath());
+			return results;
+		}
+		final FcrResultsWriter writer = params.isPerformFcr() ? new FcrResultsWriter(params, files.length) : null;
+		// if there are less files than threads, drawing and labeling of each image are split up too
+		final int image_threads = Math.max(1, n_threads/files.length);
+		try {
+			WireScheduler.run("replay", files.length, new WireScheduler.Task() {
+				@Override
+				public void run(int i) {
+					results[i] = replay(i, files[i], writer, image_threads);
+				}
+			});
+		} finally {
+			if (writer!=null) writer.close();
+		}
+		return results;
+	}
+
+	private FcrResult replay(int index, File file, FcrResultsWriter writer, int threads){
+
+		RunMetrics.Timer timer = RunMetrics.current().start("replay");
+		double scale = params.getReplayScale();
+		int[] size = new int[1];
+		Wire[] wires;
+		try {
+			wires = load(file, scale, params.getReplayWidthScale(), size);
+		} catch (IOException e) {
+			timer.stop();
+			throw new RuntimeException("Could not read " + file + ": " + e.getMessage(), e);
+		}
+		if (size[0]==0) size[0] = params.getImageSize();
+		int image_size = (int) Math.round(size[0]*scale);
+		int number = wires.length;
+		String filename = outputName(file, params.getReplayScale(), params.getReplayWidthScale(), image_size);
+		GenerationParameters image_params = imageParameters(image_size, number, filename);
+
+		System.err.println("I'm Thread-"+ Thread.currentThread().getId()+ ", and I'm replaying " + file.getName());
+		BitCanvas picture = new BitCanvas(image_size, image_size);
+		long pixels = BandRasterizer.draw(wires, picture, threads);
+		SliceWriter.save(image_params, picture, image_params.getDestinationPath() + filename);
+		System.out.println(filename+" -----> done.");
+		timer.addWires(number, 0);
+		timer.addPixels(pixels);
+		timer.stop();
+
+		if (params.isPerformSkeletonize()){
+			Wire_Generator_.SkeletonizePicture(picture.toByteProcessor(), image_params, number, null);
+		}
+		if (params.isPerformFcr()){
+			// the row goes in by the index of the file (there can be several files with the same number of wires)
+			FcrResult result = Wire_Generator_.FCRPicture(picture, image_params, null, number, threads, false, null);
+			writer.add(index, result);
+			return result;
+		}
+		return null;
+	}
+
+	private GenerationParameters imageParameters(int image_size, int number, String filename){
+
+		// the parameters of the run with the size, the number of wires and the name of one replayed image
+		Ini copy = new Ini();
+		Ini.Section section = ini.get("Parameters");
+		for (String key : section.keySet()){
+			copy.put("Parameters", key, section.get(key));
+		}
+		copy.put("Parameters", "image_size", image_size);
+		copy.put("Parameters", "n_start", number);
+		copy.put("Parameters", "n_end", number);
+		copy.put("Parameters", "seed", params.getSeed());
+		copy.put("Parameters", "file_name", filename);
+		return GenerationParameters.fromIni(copy, params.getLengthDistribution(), params.getWidthDistribution(), params.getAlphaDistribution());
+	}
+
+	static String outputName(File file, double scale, double width_scale, int image_size){
+
+		// the name of the wire file without the ending, scaled lengths, widths and size (like createFileName())
+		String name = file.getName();
+		if (name.endsWith(CATALOG)){
+			name = name.substring(0, name.length()-CATALOG.length());
+		} else if (name.endsWith(TEXT)){
+			name = name.substring(0, name.length()-TEXT.length());
+		} else if (name.lastIndexOf('.') > 0){
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+		if (scale==1 && width_scale==1) return name;
+		name = scaleNumbers(name, LENGTH, scale);
+		name = scaleNumbers(name, WIDTH, scale*width_scale);
+		Matcher m = SIZE.matcher(name);
+		return m.find() ? name.substring(0, m.start()) + "_size-" + image_size + name.substring(m.end()) : name;
+	}
+
+	private static String scaleNumbers(String name, Pattern pattern, double factor){
+		Matcher m = pattern.matcher(name);
+		if (!m.find()) return name;
+		String prefix = m.group().substring(0, m.group().indexOf('-')+1);
+		return name.substring(0, m.start()) + prefix + (int)(Long.parseLong(m.group(1))*factor) + "-" + (int)(Long.parseLong(m.group(2))*factor) + name.substring(m.end());
+	}
+
+	static File[] findFiles(File path){
+
+		// the wire file, or the wire files of all images in the directory (sorted by name)
+		if (!path.isDirectory()) return path.isFile() ? new File[]{path} : new File[0];
+		File[] all = path.listFiles();
+		if (all==null) return new File[0];
+		List<File> files = new ArrayList<File>();
+		for (File f : all){
+			String name = f.getName();
+			if (name.endsWith(CATALOG)){
+				files.add(f);
+			} else if (name.endsWith(TEXT) && !new File(path, name.substring(0, name.length()-TEXT.length()) + CATALOG).exists()){
+				files.add(f);
+			}
+		}
+		File[] sorted = files.toArray(new File[files.size()]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	static Wire[] load(File file, double scale, double width_scale, int[] image_size) throws IOException {
+
+		// all wires of a catalog or a text file, scaled; image_size[0] gets the size of the saved image
+		boolean scaled = scale!=1 || width_scale!=1;
+		if (file.getName().endsWith(".bin")){
+			WireCatalog catalog = new WireCatalog(file);
+			try {
+				if (catalog.getCount() > Integer.MAX_VALUE) throw new IOException("Too many wires (" + catalog.getCount() + ")");
+				image_size[0] = catalog.getImageSize();
+				Wire[] wires = new Wire[(int) catalog.getCount()];
+				WireCatalog.Cursor c = catalog.cursor();
+				for (int i = 0; c.next(); i++){
+					Wire draht = new Wire(c.getLength(), c.getWidth(), c.getR(), c.getAlpha(), c.getPhi(),
+							c.getX1(), c.getY1(), c.getX2(), c.getY2(), c.getmx(), c.getmy(), c.isBent());
+					wires[i] = scaled ? draht.scaled(scale, width_scale) : draht;
+				}
+				return wires;
+			} finally {
+				catalog.close();
+			}
+		}
+
+		// text: the size is only in the filename, the current image_size if it's not there
+		Matcher m = SIZE.matcher(file.getName());
+		image_size[0] = m.find() ? Integer.parseInt(m.group(1)) : 0;
+		List<Wire> wires = new ArrayList<Wire>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int row = 0;
+			while ((line = reader.readLine())!=null){
+				row++;
+				if (line.isEmpty() || line.startsWith("Length")) continue;
+				String[] v = line.split("\t");
+				if (v.length < 11) throw new IOException("Line " + row + " has only " + v.length + " columns");
+				try {
+					// angles are saved in degrees, straight wires have r = 0
+					double r = Double.parseDouble(v[8]);
+					Wire draht = new Wire(Double.parseDouble(v[0]), Double.parseDouble(v[1]), r,
+							Double.parseDouble(v[9])*Math.PI/180, Double.parseDouble(v[10])*Math.PI/180,
+							Integer.parseInt(v[2]), Integer.parseInt(v[3]), Integer.parseInt(v[4]), Integer.parseInt(v[5]),
+							Integer.parseInt(v[6]), Integer.parseInt(v[7]), r > 0);
+					wires.add(scaled ? draht.scaled(scale, width_scale) : draht);
+				} catch (NumberFormatException e) {
+					throw new IOException("Line " + row + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return wires.toArray(new Wire[wires.size()]);
+	}
+
+}
@@ -0,0 +1,181 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import ij.Prefs;
+
+/*
+ * One shared work-stealing pool (ForkJoinPool, as many threads as in Edit>Options>Memory & Threads)
+ * for all stages, instead of a new Thread[] in every stage.
+ *
+ * run(): the tasks 0..count-1 of a stage (usually one image each). Shows the progress bar,
+ * stops at Esc (WireCancelledException) and after the first error of a task, which is thrown
+ * again with the stage and the task index (WireTaskException).
+ * With a Progress, the tasks count the progress and check Esc themselves (for tasks that work on a stream of
+ * images, like the stages of the WirePipeline).
+ * split(): the same for the parts of one image (bands, grid cells), without progress and Esc.
+ * Both can be used inside a task, the waiting thread helps with the work of the pool.
+ * The tasks are charged to the RunMetrics stage of the calling thread (if it has one).
+ */
+
+public final class WireScheduler {
+
+	public interface Task {
+		void run(int index);
+	}
+
+	private static ForkJoinPool pool = null;
+	private static int pool_threads = 0;
+
+	private WireScheduler(){
+	}
+
+	private static synchronized ForkJoinPool pool(){
+		// the pool is made new if the number of threads in the preferences was changed
+		int n = Math.max(1, Prefs.getThreads());
+		if (pool==null || pool_threads!=n){
+			if (pool!=null) pool.shutdown();
+			pool = new ForkJoinPool(n);
+			pool_threads = n;
+		}
+		return pool;
+	}
+
+	public static int getThreads(){
+		return pool().getParallelism();
+	}
+
+	public static final class Progress {
+
+		private final int count;
+		private final AtomicInteger done = new AtomicInteger(0);
+
+		public Progress(int count){
+			this.count = count;
+		}
+
+		public void step(){
+			IJ.showProgress(done.incrementAndGet(), count);
+		}
+	}
+
+	public static void run(String stage, int count, Task task){
+		new Run(stage, count, task, new Progress(count), true).execute();
+	}
+
+	public static void run(String stage, int count, Progress progress, Task task){
+		// progress.step() and the Esc check are done by the tasks
+		new Run(stage, count, task, progress, false).execute();
+	}
+
+	public static void split(String stage, int count, Task task){
+		new Run(stage, count, task, null, false).execute();
+	}
+
+	private static final class Run {
+
+		final String stage;
+		final int count;
+		final Task task;
+		final Progress progress;		// progress bar and Esc (null for split())
+		final boolean step_tasks;	// one progress step per task
+		final RunMetrics.Charge charge = RunMetrics.charge();
+		volatile boolean cancelled = false;
+		volatile Throwable failure = null;
+		volatile int failed_index = -1;
+
+		Run(String stage, int count, Task task, Progress progress, boolean step_tasks){
+			this.stage = stage;
+			this.count = count;
+			this.task = task;
+			this.progress = progress;
+			this.step_tasks = step_tasks;
+		}
+
+		void execute(){
+
+			if (count <= 0) return;
+			if (progress!=null) IJ.resetEscape();
+			Range all = new Range(this, 0, count);
+			if (count==1){
+				// nothing to share
+				runTask(0);
+			} else {
+				RunMetrics.Timer waiting = RunMetrics.waiting();
+				try {
+					if (ForkJoinTask.inForkJoinPool()) all.invoke();
+					else pool().invoke(all);
+				} finally {
+					waiting.stop();
+				}
+			}
+			if (progress!=null) IJ.showProgress(1.0);
+
+			if (failure!=null){
+				if (failure instanceof Error) throw (Error) failure;
+				// a failed split() inside a task already knows where it happened
+				if (failure instanceof WireTaskException) throw (WireTaskException) failure;
+				if (failure instanceof WireCancelledException) throw (WireCancelledException) failure;
+				throw new WireTaskException(stage, failed_index, failure);
+			}
+			if (cancelled){
+				throw new WireCancelledException(stage + " canceled after " + progress.done.get() + " of " + progress.count);
+			}
+		}
+
+		void runTask(int index){
+
+			// after an error or Esc the remaining tasks are skipped
+			if (failure!=null || cancelled) return;
+			if (step_tasks && IJ.escapePressed()){
+				cancelled = true;
+				return;
+			}
+			RunMetrics.Timer timer = charge==null ? null : charge.start();
+			try {
+				task.run(index);
+			} catch (Throwable e) {
+				synchronized (this) {
+					if (failure==null){
+						failure = e;
+						failed_index = index;
+					}
+				}
+				e.printStackTrace();
+				return;
+			} finally {
+				if (timer!=null) timer.stop();
+			}
+			if (step_tasks) progress.step();
+		}
+	}
+
+	private static final class Range extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Run run;
+		private final int from;
+		private final int to;
+
+		Range(Run run, int from, int to){
+			this.run = run;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			// halve until one task is left, idle threads steal the other halves
+			if (to-from > 1){
+				int mid = (from+to) >>> 1;
+				invokeAll(new Range(run, from, mid), new Range(run, mid, to));
+			} else {
+				run.runTask(from);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,14 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/*
+ * A WireSink receives all wires of one image.
+ * It is opened once before the first wire and closed when the image is finished,
+ * so the file is not opened again for every single wire.
+ */
+
+public interface WireSink extends Closeable {
+
+	public void write(Wire draht) throws IOException;
+
+}
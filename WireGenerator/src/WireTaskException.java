@@ -0,0 +1,27 @@
+/*
+ * The first error of a stage run by the WireScheduler, with the stage and the image (index)
+ * it happened in. The original exception is the cause.
+ */
+
+public class WireTaskException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String stage;
+	private final int index;
+
+	public WireTaskException(String stage, int index, Throwable cause){
+		super(stage + " failed at task " + index + ": " + cause, cause);
+		this.stage = stage;
+		this.index = index;
+	}
+
+	public String getStage(){
+		return stage;
+	}
+
+	public int getIndex(){
+		return index;
+	}
+
+}
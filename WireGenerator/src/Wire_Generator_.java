@@ -5,8 +5,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ini4j.Ini;
 
@@ -15,13 +13,10 @@ import ij.Prefs;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.gui.Plot;
-import ij.io.FileSaver;
 import ij.plugin.PlugIn;
 import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 import fiji.util.gui.GenericDialogPlus;
-import util.FindConnectedRegions;
-import util.FindConnectedRegions.*;
 
 /*
  * 
@@ -49,10 +44,6 @@ public class Wire_Generator_ implements PlugIn{
 	@Override
 	public void run(String arg) {
 		System.err.println("Welcome to the Wire Generator");
-		//Some Variables to store the probability lists
-		ArrayList<String> length_prop_list=null;
-		ArrayList<String> width_prop_list=null;
-		ArrayList<String> alpha_prop_list=null;
 		
 		// The most important object in this code!
 		// The Ini holds every setting Information either from 
@@ -72,40 +63,165 @@ public class Wire_Generator_ implements PlugIn{
 		// null is returned if user cancellled the dialog. Then we quit the PlugIn...
 		if (myini==null) return;
 		
-		// Get filepaths to probability-by-lists
-		if (myini.get("Parameters","bool_length_by_list",boolean.class)){
-			length_prop_list = ImportProbabilityList(myini.get("Parameters","length_prop_list",String.class));
-		}
-		if (myini.get("Parameters","bool_width_by_list",boolean.class)){
-			width_prop_list = ImportProbabilityList(myini.get("Parameters","width_prop_list",String.class));
-		}
-		if (myini.get("Parameters","bool_alpha_by_list",boolean.class)){
-			alpha_prop_list = ImportProbabilityList(myini.get("Parameters","alpha_prop_list",String.class));
+		// Parse the Ini once into the parameters which are shared by all threads
+		// From here on nobody touches the Ini anymore
+		GenerationParameters params;
+		try{
+			params = LoadParameters(myini);
+		} catch (IllegalArgumentException e){
+			System.err.println(e.getMessage());
+			IJ.error("Invalid parameters", e.getMessage());
+			return;
 		}
+		// print the seed, so every run can be reproduced
+		System.out.println("Random seed: " + params.getSeed());
 		
-		// Create Pictures
-		ImagePlus wires_imp = CreatePicturtes(myini, length_prop_list, width_prop_list, alpha_prop_list);
-		wires_imp.show();
+		// timing of this run, written as 00-run_report.json at the end
+		RunMetrics metrics = RunMetrics.begin();
+		Thread status_bar = params.isShowMetrics() ? StartStatusBar(metrics) : null;
 		
-		// Perform Skeletonize if desired
-		if (myini.get("Parameters","perform_skeletonize",boolean.class)){
-			System.out.println("starting Skeletonize");
-			ImagePlus skel_imp = PerformSkeletonize(wires_imp, myini);
-			skel_imp.show();
-			System.out.println("Skeletonize done");
+		try{
+			if (params.isReplay()){
+				// the saved wires are drawn again, nothing new is generated
+				System.out.println("starting replay of " + params.getReplayPath());
+				FcrResult[] fcr_results = new WireReplay(params, myini, Prefs.getThreads()).run();
+				if (params.isPerformFcr() && fcr_results.length > 0){
+					ShowCoveragePlot(fcr_results);
+				}
+				System.out.println("finished all");
+				return;
 			}
-		
-		// Perform FCR if desired
-		if (myini.get("Parameters","perform_fcr",boolean.class)){
-			System.out.println("starting FCR");
-			ImagePlus fcr_imp = PerformFCR(wires_imp, myini);
-			fcr_imp.show();
-			System.out.println("FCR done");
+			if (params.isThresholdSearch()){
+				// bisection on the number of wires between n_start and n_end
+				System.out.println("starting threshold search");
+				ThresholdSearch search = new ThresholdSearch(params, Prefs.getThreads());
+				double threshold = search.run();
+				Plot p = new Plot("Threshold search", "Wires", params.isThresholdBySpanning() ? "Spanning probability" : "largest Region / all Regions");
+				p.addPoints(search.getProbedNumbers(), search.getProbedValues(), Plot.CIRCLE);
+				p.show();
+				IJ.showMessage("Threshold search", "Critical number of wires: " + threshold);
+				System.out.println("finished all");
+				return;
+			}
+			if (params.isEnsemble()){
+				// several images per number of wires, only the statistics are kept
+				System.out.println("starting ensemble of " + params.getRealizationsPerN() + " images per number of wires");
+				EnsembleResult[] ensemble_results = new WireEnsemble(params, Prefs.getThreads()).run();
+				ShowCoveragePlot(ensemble_results);
+				System.out.println("finished all");
+				return;
+			}
+			if (params.isGeometricPercolation()){
+				// only the wire geometry, no images at all
+				System.out.println("starting geometric percolation");
+				WireNetworkResult[] network_results = PerformGeometricPercolation(params, Prefs.getThreads());
+				ShowClusterPlot(network_results);
+				System.out.println("finished all");
+				return;
+			}
+			if (params.isTiled()){
+				// the images are drawn and saved tile by tile, never as a whole
+				System.out.println("starting tiled rendering");
+				TiledRenderer.run(params);
+				System.out.println("finished all");
+				return;
+			}
+			if (params.isNestedSweep()){
+				// every image is the previous one plus n_step wires
+				System.out.println("starting nested sweep");
+				ShowNestedSweep(params);
+				System.out.println("finished all");
+				return;
+			}
+			if (params.isStreamingPipeline()){
+				// every image runs through all stages and is dropped afterwards
+				System.out.println("starting streaming pipeline");
+				FcrResult[] fcr_results = new WirePipeline(params, Prefs.getThreads()).run();
+				if (params.isPerformFcr()){
+					ShowCoveragePlot(fcr_results);
+				}
+				System.out.println("finished all");
+				return;
+			}
+			
+			// Create Pictures
+			ImagePlus wires_imp = CreatePicturtes(params);
+			wires_imp.show();
+			
+			// Perform Skeletonize if desired
+			if (params.isPerformSkeletonize()){
+				System.out.println("starting Skeletonize");
+				ImagePlus skel_imp = PerformSkeletonize(wires_imp, params);
+				skel_imp.show();
+				System.out.println("Skeletonize done");
+				}
+			
+			// Perform FCR if desired
+			if (params.isPerformFcr()){
+				System.out.println("starting FCR");
+				ImagePlus fcr_imp = PerformFCR(wires_imp, params);
+				fcr_imp.show();
+				System.out.println("FCR done");
+				}
+		} catch (WirePlacementException e){
+			System.err.println(e.getMessage());
+			IJ.error("Error during Wire placement", e.getMessage());
+			return;
+		} catch (WireCancelledException e){
+			// Esc was pressed
+			System.err.println(e.getMessage());
+			IJ.showStatus(e.getMessage());
+			return;
+		} catch (WireTaskException e){
+			// the first error of a task, with the stage and the image where it happened
+			System.err.println(e.getMessage());
+			if (e.getCause() instanceof WirePlacementException){
+				IJ.error("Error during Wire placement", e.getCause().getMessage());
+			} else {
+				IJ.error("Error in " + e.getStage(), e.getMessage());
 			}
+			return;
+		} finally {
+			// the images still in the queue are written before the report
+			try {
+				SliceWriter.flush();
+			} catch (WireTaskException e){
+				// images that could not be saved, the run itself went through
+				System.err.println(e.getMessage());
+				IJ.error("Error in " + e.getStage(), e.getMessage());
+			}
+			metrics.finish();
+			if (status_bar!=null){
+				status_bar.interrupt();
+				IJ.showStatus(metrics.summary());
+			}
+			metrics.write(params.getDestinationPath() + "00-run_report.json");
+		}
 		
 		
 		System.out.println("finished all");	
 	}
+	
+	private static Thread StartStatusBar(final RunMetrics metrics){
+		
+		// shows the summary of the run in the ImageJ status bar every second
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true){
+						IJ.showStatus(metrics.summary());
+						Thread.sleep(1000);
+					}
+				} catch (InterruptedException e) {
+					// run is done
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
 
 
 	private static Ini create_config_file(String config_path){
@@ -125,14 +241,36 @@ public class Wire_Generator_ implements PlugIn{
 			writer.write("max_width = 20\n");
 			writer.write("bool_width_by_list = False\n");
 			writer.write("image_size = 4096\n");
+			writer.write("tile_size = 0\n");
 			writer.write("n_start = 100\n");
 			writer.write("n_end = 100\n");
 			writer.write("n_step = 10\n");
+			writer.write("seed = -1\n");
 			writer.write("allow_outside = False\n");
+			writer.write("placement = rejection\n");
+			writer.write("results_format = txt\n");
+			writer.write("wire_format = bin\n");
+			writer.write("image_format = zip\n");
+			writer.write("compression_level = 6\n");
+			writer.write("cache_size_mb = 0\n");
+			writer.write("show_metrics = False\n");
 			writer.write("perform_fcr = False\n");
 			writer.write("save_fcr_images = False\n");
 			writer.write("perform_skeletonize = False\n");
 			writer.write("save_skeletonized_images = False\n");
+			writer.write("streaming_pipeline = False\n");
+			writer.write("virtual_stacks = False\n");
+			writer.write("geometric_percolation = False\n");
+			writer.write("nested_sweep = False\n");
+			writer.write("realizations_per_n = 1\n");
+			writer.write("threshold_search = False\n");
+			writer.write("threshold_criterion = spanning\n");
+			writer.write("threshold_target = 0.5\n");
+			writer.write("threshold_realizations = 8\n");
+			writer.write("threshold_tolerance = 10\n");
+			writer.write("replay_path = \n");
+			writer.write("replay_scale = 1\n");
+			writer.write("replay_width_scale = 1\n");
 			String path = "destinationpath = "+ System.getProperty("user.home")+ File.separator+"Pictures" + File.separator + "\n";
 			writer.write(path);
 			path = "length_prop_list = "+ System.getProperty("user.home")+ File.separator+"Pictures" + File.separator + "length_prop_list.txt"+"\n";
@@ -154,7 +292,7 @@ public class Wire_Generator_ implements PlugIn{
 
 	}
 
-	private static Ini LoadConfigFile(String config_path) {
+	static Ini LoadConfigFile(String config_path) {
 		
 		// Ini Object is created by loading the configfile
 		Ini ini = new Ini();
@@ -214,17 +352,44 @@ public class Wire_Generator_ implements PlugIn{
 		
 		gd.addMessage("Image Properties:");
 		gd.addNumericField("Image size", ini.get("Parameters","image_size",double.class), 0);
+		gd.addNumericField("Tile size for huge images (0 = whole image, else multiple of 16)", GenerationParameters.getDouble(ini,"tile_size",0), 0);
 		gd.addNumericField("Image sequence: Min. number of wires", ini.get("Parameters","n_start",double.class), 0);
 		gd.addNumericField("Image sequence: Max. number of wires", ini.get("Parameters","n_end",double.class), 0);
 		gd.addNumericField("Image sequence: Stepsize", ini.get("Parameters","n_step",double.class), 0);
+		// the seed is text: a number field holds only 53 bits, so a printed seed would come back changed
+		gd.addStringField("Random seed (-1 = new seed every run)", Long.toString(GenerationParameters.getLong(ini,"seed",-1)), 20);
+		gd.addNumericField("Images per number of wires (>1: only statistics, no images)", GenerationParameters.getDouble(ini,"realizations_per_n",1), 0);
 		
 		gd.addDirectoryField("Path for Output", ini.get("Parameters","destinationpath",String.class));
 		
 		gd.addCheckbox("Allow wires intersecting with the border", ini.get("Parameters","allow_outside",boolean.class));
+		gd.addChoice("Placement inside the image", new String[]{"rejection", "analytic"}, GenerationParameters.getString(ini,"placement","rejection"));
 		gd.addCheckbox("Perform 'Find Connected Regions'", ini.get("Parameters","perform_fcr",boolean.class));
 		gd.addCheckbox("Save FCR - images", ini.get("Parameters","save_fcr_images",boolean.class));
+		gd.addCheckbox("Show timing in the status bar (report is always written)", GenerationParameters.getBoolean(ini,"show_metrics",false));
+		gd.addChoice("FCR results file", new String[]{"txt", "csv", "jsonl"}, GenerationParameters.getString(ini,"results_format","txt"));
+		gd.addChoice("Wire files (bin = binary catalog, txt = text export)", new String[]{"bin", "txt", "both"}, GenerationParameters.getString(ini,"wire_format","bin"));
+		gd.addChoice("Image files (tif1 = 1 bit per pixel)", new String[]{"zip", "tif", "png", "tif1"}, GenerationParameters.getString(ini,"image_format","zip"));
+		gd.addNumericField("Compression level for zip and png (0-9)", GenerationParameters.getDouble(ini,"compression_level",6), 0);
+		gd.addNumericField("Cache of images and results in MB (0 = off)", GenerationParameters.getDouble(ini,"cache_size_mb",0), 0);
 		gd.addCheckbox("Perform 'Skeletonize'", ini.get("Parameters","perform_skeletonize",boolean.class));
 		gd.addCheckbox("Save skeletonized images", ini.get("Parameters","save_skeletonized_images",boolean.class));
+		gd.addCheckbox("Streaming mode (low memory, no result stacks)", GenerationParameters.getBoolean(ini,"streaming_pipeline",false));
+		gd.addCheckbox("Result stacks as virtual stacks from the saved files (saves all images)", GenerationParameters.getBoolean(ini,"virtual_stacks",false));
+		gd.addCheckbox("Geometric percolation only (no images, clusters from the wire geometry)", GenerationParameters.getBoolean(ini,"geometric_percolation",false));
+		gd.addCheckbox("Nested sweep (every image = previous image + stepsize wires)", GenerationParameters.getBoolean(ini,"nested_sweep",false));
+		
+		gd.addMessage("Threshold search (between min. and max. number of wires):");
+		gd.addCheckbox("Search the critical number of wires", GenerationParameters.getBoolean(ini,"threshold_search",false));
+		gd.addChoice("Criterion", new String[]{"spanning", "largest"}, GenerationParameters.getString(ini,"threshold_criterion","spanning"));
+		gd.addNumericField("Target (spanning probability or largest region fraction)", GenerationParameters.getDouble(ini,"threshold_target",0.5), 2);
+		gd.addNumericField("Images per number of wires", GenerationParameters.getDouble(ini,"threshold_realizations",8), 0);
+		gd.addNumericField("Tolerance [wires]", GenerationParameters.getDouble(ini,"threshold_tolerance",10), 0);
+		
+		gd.addMessage("Replay (draw saved wires again instead of new ones):");
+		gd.addDirectoryField("Wire file or directory (empty = new wires)", GenerationParameters.getString(ini,"replay_path",""));
+		gd.addNumericField("Scale factor (image and wires)", GenerationParameters.getDouble(ini,"replay_scale",1), 2);
+		gd.addNumericField("Extra factor for the wire width", GenerationParameters.getDouble(ini,"replay_width_scale",1), 2);
 		
 		gd.showDialog();
 		
@@ -252,9 +417,12 @@ public class Wire_Generator_ implements PlugIn{
 		ini.put("Parameters","alpha_prop_list", gd.getNextString());
 		
 		ini.put("Parameters","image_size", gd.getNextNumber());
+		ini.put("Parameters","tile_size", (int) gd.getNextNumber());
 		ini.put("Parameters","n_start", gd.getNextNumber());
 		ini.put("Parameters","n_end", gd.getNextNumber());
 		ini.put("Parameters","n_step", gd.getNextNumber());
+		ini.put("Parameters","seed", gd.getNextString().trim());
+		ini.put("Parameters","realizations_per_n", (int) gd.getNextNumber());
 		
 		// make sure there is an / or \ at the end of the directory path
 		String path = gd.getNextString();
@@ -262,18 +430,62 @@ public class Wire_Generator_ implements PlugIn{
 		ini.put("Parameters","destinationpath", path);
 		
 		ini.put("Parameters","allow_outside", gd.getNextBoolean());
+		ini.put("Parameters","placement", gd.getNextChoice());
 		ini.put("Parameters","perform_fcr", gd.getNextBoolean());
 		ini.put("Parameters","save_fcr_images", gd.getNextBoolean());
+		ini.put("Parameters","show_metrics", gd.getNextBoolean());
+		ini.put("Parameters","results_format", gd.getNextChoice());
+		ini.put("Parameters","wire_format", gd.getNextChoice());
+		ini.put("Parameters","image_format", gd.getNextChoice());
+		ini.put("Parameters","compression_level", (int) gd.getNextNumber());
+		ini.put("Parameters","cache_size_mb", (int) gd.getNextNumber());
 		ini.put("Parameters","perform_skeletonize", gd.getNextBoolean());
 		ini.put("Parameters","save_skeletonized_images", gd.getNextBoolean());
+		ini.put("Parameters","streaming_pipeline", gd.getNextBoolean());
+		ini.put("Parameters","virtual_stacks", gd.getNextBoolean());
+		ini.put("Parameters","geometric_percolation", gd.getNextBoolean());
+		ini.put("Parameters","nested_sweep", gd.getNextBoolean());
+		
+		ini.put("Parameters","threshold_search", gd.getNextBoolean());
+		ini.put("Parameters","threshold_criterion", gd.getNextChoice());
+		ini.put("Parameters","threshold_target", gd.getNextNumber());
+		ini.put("Parameters","threshold_realizations", gd.getNextNumber());
+		ini.put("Parameters","threshold_tolerance", gd.getNextNumber());
+		
+		ini.put("Parameters","replay_path", gd.getNextString().trim());
+		ini.put("Parameters","replay_scale", gd.getNextNumber());
+		ini.put("Parameters","replay_width_scale", gd.getNextNumber());
 
 		//Write changed values back into configfile:
 		StoreConfigFile(ini, config_path);		
 		return ini;
 	}
 	
-	private static ArrayList<String> ImportProbabilityList(String path){
+	static GenerationParameters LoadParameters(Ini ini){
 		
+		// Get filepaths to probability-by-lists
+		// The lists are checked and compiled only once here, and not for every wire
+		// Invalid lists or values throw an IllegalArgumentException
+		ProbabilityDistribution length_prop_list=null;
+		ProbabilityDistribution width_prop_list=null;
+		ProbabilityDistribution alpha_prop_list=null;
+		if (GenerationParameters.getBoolean(ini,"bool_length_by_list",false)){
+			length_prop_list = ImportProbabilityList(GenerationParameters.getString(ini,"length_prop_list",""));
+		}
+		if (GenerationParameters.getBoolean(ini,"bool_width_by_list",false)){
+			width_prop_list = ImportProbabilityList(GenerationParameters.getString(ini,"width_prop_list",""));
+		}
+		if (GenerationParameters.getBoolean(ini,"bool_alpha_by_list",false)){
+			alpha_prop_list = ImportProbabilityList(GenerationParameters.getString(ini,"alpha_prop_list",""));
+		}
+		return GenerationParameters.fromIni(ini, length_prop_list, width_prop_list, alpha_prop_list);
+	}
+	
+	private static ProbabilityDistribution ImportProbabilityList(String path){
+		
+		// reads the list file and compiles it to a distribution
+		// malformed or unsorted lists throw an IllegalArgumentException here,
+		// so we never start the threads with a broken list
 		ArrayList<String> text = new ArrayList<String>();
 		try {
 			FileReader fr = new FileReader(path);
@@ -286,25 +498,14 @@ public class Wire_Generator_ implements PlugIn{
 		r.close();
 		} catch (IOException e) {
 			e.printStackTrace();
-			System.err.println(e.getMessage());
+			throw new IllegalArgumentException("Could not read probability list " + path + ": " + e.getMessage());
 		}
 				
-		return text;
+		return ProbabilityDistribution.parse(text, path);
 		
 	}
 
-	private static String CreateFileName(int n, Ini p){
-		
-		// convenient method, because filenames are used over ond over again
-		int min_l = p.get("Parameters","min_length",double.class).intValue();
-		int max_l = p.get("Parameters","max_length",double.class).intValue();
-		int min_w = p.get("Parameters","min_width",double.class).intValue();
-		int max_w = p.get("Parameters","max_width",double.class).intValue();
-		int size = p.get("Parameters","image_size",double.class).intValue();
-		return ("wires_n-"+n+"_length-"+min_l+"-"+max_l+"_width-"+min_w+"-"+max_w+"_size-"+size);
-	}
-
-	private static void WriteToFile(String path_String, String text){
+	static void WriteToFile(String path_String, String text){
 		
 		// simply writes one line of text in a file at the given path
 		// file is created if it doesn't exists
@@ -326,21 +527,13 @@ public class Wire_Generator_ implements PlugIn{
 		}
 	}
 		
-	private static void WriteToFile(String path_String, Wire draht) {
+	private static void CloseSink(WireSink sink) {
 		
-		// writes the properties of a wire Object to the file
-		// using the wires Method toString()
-		// file is created if it doesn't exists
-		FileWriter writer;
-		File f = new File(path_String);
+		// flushes and closes the wire file of one image
+		if (sink==null) return;
 		try
 		{
-			// second argument in FileWriter is boolean=append.
-			// And thats true if File already exists...
-			writer = new FileWriter(path_String,f.exists());
-			writer.write(draht.toString() + '\n');
-			writer.close();
-					
+			sink.close();
 		}
 		catch (IOException e) 
 		{
@@ -350,345 +543,617 @@ public class Wire_Generator_ implements PlugIn{
 		
 	}
 
-	private static ByteProcessor Draw(Wire draht, ByteProcessor picture){
-		
-		picture.setLineWidth((int) draht.getWidth());
+	
+	static ImageProcessor SkeletonizePicture(ImageProcessor picture, GenerationParameters params, int number, String cache_key) {
 		
-		// Wires are always white
-		picture.setColor(255);
-		//picture.setColor((int)(Math.random()*255 + 1));
+		// Skeletonize of one image (the picture itself is not changed)
+		// cache_key: the image in the WireCache (null: not cached)
+		RunMetrics.Timer timer = RunMetrics.current().start("skeletonize");
+		ImageProcessor result = WireCache.loadSkeleton(params, cache_key);
+		ImagePlus imp = null;
+		if (result==null)
+		{
+			ImageProcessor ip = picture.duplicate();
+			imp = new ImagePlus("Skeletonized " + number, ip);  
+			// Run the plugin on the new image:  
+			IJ.run(imp, "Skeletonize (2D/3D)", "");
 
-		if(!draht.isBent()){
-			// non-bent Wires can be easily drawn with a straight line
-			picture.drawLine(draht.getX1(), draht.getY1(), draht.getX2(), draht.getY2());
+			result = imp.getProcessor();
+			WireCache.storeSkeleton(params, cache_key, result);
 		}
-		else{
-			double alpha = draht.getAlpha();
-			double phi = draht.getPhi();
-			int r = (int)(draht.getR());
-			int mx = draht.getmx();
-			int my = draht.getmy();
-
-			// bent wires are drawn using polar coordinates
-			int numberOfSteps = (int)(draht.getLength()/draht.getWidth());
-			double increment = alpha/numberOfSteps;
-			for(double a = phi+increment; a <  alpha+phi; a=a+increment){
-				double a0 = (a - increment);
-				int x0 = mx - (int)(r*Math.cos(a0));
-				int y0 = my + (int)(r*Math.sin(a0));
-				int x1 = mx - (int)(r*Math.cos(a));
-				int y1 = my + (int)(r*Math.sin(a));	
-				picture.drawLine(x0, y0, x1, y1);					
-			}
-			//make sure we draw till the very end!
-			double a = alpha+phi;
-			double a0 = alpha+phi - increment;
-			int x0 = mx - (int)(r*Math.cos(a0));
-			int y0 = my + (int)(r*Math.sin(a0));
-			int x1 = mx - (int)(r*Math.cos(a));
-			int y1 = my + (int)(r*Math.sin(a));	
-			picture.drawLine(x0, y0, x1, y1);
-			
+		
+		// Save Image if desired (in the background, see SliceWriter)
+		if (params.isSaveSkeletonizedImages())
+		{
+			SliceWriter.save(params, result, params.getDestinationPath()+params.createFileName(number)+"_skeletonized");
 		}
-		return picture;
+		
+		if (imp!=null) imp.flush();
+		timer.stop();
+		return result;
 	}
 	
-	private ImagePlus PerformSkeletonize(final ImagePlus stack, final Ini ini) {
-
-		// the AtomicInteger ensures that the different threads don't read the same counter variable at the same time
-		// or one thread increases variable during another thread reads it etc...
-		final AtomicInteger ai = new AtomicInteger(1);
-		final int stacksize = stack.getStackSize();
-		// store all result images here  
-		final ImageProcessor[] results = new ImageProcessor[stacksize];  
-
-		final Thread[] threads = newThreadArray();  
+	static FcrResult FCRPicture(ImageProcessor picture, GenerationParameters params, FcrResultsWriter results, int number, int n_threads, boolean keep_regions, String cache_key) {
+		
+		// Find Connected Regions of one image, the results are handed to the results writer
+		// n_threads: threads for the labeling of this image
+		// keep_regions: the image of all regions is returned (it's always created if it is saved)
+		// cache_key: the image in the WireCache (null: not cached)
+		boolean with_labels = keep_regions || params.isSaveFcrImages();
+		RunMetrics.Timer timer = RunMetrics.current().start("fcr");
+		FcrResult result = CachedFcrResult(params, results, number, with_labels, cache_key);
+		if (result==null)
+		{
+			ByteProcessor bp = picture instanceof ByteProcessor ? (ByteProcessor) picture : (ByteProcessor) picture.convertToByte(false);
+			LabelingResult labeling = ConnectedComponents.label(bp, n_threads, with_labels);
+			WireCache.storeFcr(params, cache_key, labeling);
+			result = RecordFcrResult(params, results, number, labeling.getCount(), labeling.getPercolation(), labeling.getCoverage(), labeling.isSpanning(), labeling.getLabels(), keep_regions);
+		}
+		timer.stop();
+		return result;
+	}
+	
+	static FcrResult FCRPicture(BitCanvas picture, GenerationParameters params, FcrResultsWriter results, int number, int n_threads, boolean keep_regions, String cache_key) {
+		
+		// the same for a packed image, it's labeled without converting it
+		boolean with_labels = keep_regions || params.isSaveFcrImages();
+		RunMetrics.Timer timer = RunMetrics.current().start("fcr");
+		FcrResult result = CachedFcrResult(params, results, number, with_labels, cache_key);
+		if (result==null)
+		{
+			LabelingResult labeling = ConnectedComponents.label(picture, n_threads, with_labels);
+			WireCache.storeFcr(params, cache_key, labeling);
+			result = RecordFcrResult(params, results, number, labeling.getCount(), labeling.getPercolation(), labeling.getCoverage(), labeling.isSpanning(), labeling.getLabels(), keep_regions);
+		}
+		timer.stop();
+		return result;
+	}
+	
+	private static FcrResult CachedFcrResult(GenerationParameters params, FcrResultsWriter results, int number, boolean with_labels, String cache_key) {
+		
+		// the FCR numbers from the WireCache, null if they are not there
+		// (the regions themselves are not cached, so the labeling is done again if they are needed)
+		if (with_labels) return null;
+		double[] cached = WireCache.loadFcr(params, cache_key);
+		if (cached==null) return null;
+		return RecordFcrResult(params, results, number, (int) cached[0], cached[1], cached[2], cached[3]!=0, null, false);
+	}
+	
+	private static FcrResult RecordFcrResult(GenerationParameters params, FcrResultsWriter results, int number, int number_of_CRs, double percolation, double coverage, boolean spanning, ImageProcessor labels, boolean keep_regions) {
+		
+		// hands the FCR numbers of one image to the results writer and saves the image of all regions
+		// (labels can be null if it's not saved)
+		
+		// Round em on 3 digits
+		percolation = ((int)((percolation+0.0005)*1000))/1000.0;
+		coverage = ((int)((coverage+0.0005)*1000))/1000.0;
+		
+		FcrResult result = new FcrResult(number, number_of_CRs, percolation, coverage, spanning, keep_regions ? labels : null);
+		
+		//Save FCR Results in file (sorted by the number of wires, one header)
+		String filename = params.createFileName(number);
+		String filename_picture = params.getDestinationPath() + filename +"_FCR";
+		if (results!=null) results.add(result);
+		
+		// Tell User the one Number he's interested in! 
+		System.out.println("Image with "+number +" wires has "+ number_of_CRs + " regions");
 
-		for (int ithread = 0; ithread < threads.length; ithread++) {  
+		// Save Image if desired
+		if (params.isSaveFcrImages())
+		{
+			SliceWriter.save(params, labels, filename_picture);
+		}
 
-			// Concurrently run in as many threads as CPUs  
-			threads[ithread] = new Thread() {  
+		return result;
+	}
+	
+	static BitCanvas CreatePicture(GenerationParameters params, int number, int n_threads) {
+		
+		// Creates, draws and saves one image with the given number of wires
+		// n_threads: threads for drawing this image (see BandRasterizer)
+		// the image is 1 bit per pixel, it's only converted to a ByteProcessor for saving and showing
+		String filename = params.createFileName(number);
+		String filename_picture =  params.getDestinationPath() + filename;
+		
+		RunMetrics.Timer timer = RunMetrics.current().start("generation");
+		long pixels = 0;
+		
+		// Same parameters, seed and number of wires as before: image and wire files from the WireCache
+		String cache_key = WireCache.key(params, number);
+		BitCanvas fp = WireCache.loadImage(params, cache_key);
+		if (fp!=null && WireCache.restoreWires(params, cache_key, WireFiles(params, number)))
+		{
+			if (!WireCache.restoreSlice(params, cache_key, filename_picture))
+			{
+				SliceWriter.save(params, fp, filename_picture, WireCache.sliceFile(params, cache_key));
+			}
+			System.out.println(filename+" -----> done (from cache).");
+			timer.addPixels(fp.countPixels());
+			timer.stop();
+			return fp;
+		}
+		
+		// Create new, black Picture
+		fp = new BitCanvas(params.getImageSize(),params.getImageSize());
+		
+		//Print what you're doing
+		System.err.println("I'm Thread-"+ Thread.currentThread().getId()+ ", and I'm creating a Picture with " + number + " wires");
 
-				{ setPriority(Thread.NORM_PRIORITY); }  
+		// Create all wires (every image has its own random streams, independent of the thread)
+		Wire[] wires = CreateWires(params, number);
+		
+		// Save the Wires
+		long tries = SaveWires(params, number, wires);
+		
+		// Draw them, big images in bands by several threads
+		pixels = BandRasterizer.draw(wires, fp, n_threads);
+		WireCache.storeImage(params, cache_key, fp, wires);
+					
+		// Save Image (in the background, see SliceWriter)
+		SliceWriter.save(params, fp, filename_picture, WireCache.sliceFile(params, cache_key));
+		System.out.println(filename+" -----> done.");
 
-				@Override
-				public void run() {  
-
-					// Each thread processes a few items in the total stack 
-					// Each loop iteration within the run method  
-					// has a unique 'i' number to work with  
-					// and to use as index in the results array:  
-
-					for (int i = ai.getAndIncrement(); i <= stacksize; i = ai.getAndIncrement()) {  
-						//get Image out of stack 
-						ImageProcessor ip = stack.getStack().getProcessor(i).duplicate();  
-
-						//Print what you're doing
-						System.err.println("I'm Thread-"+ Thread.currentThread().getId()+ " and I'm doing Skeletonize on Element number " + i);
-
-						ImagePlus imp = new ImagePlus("Skeletonized " + i, ip);  
-						// Run the plugin on the new image:  
-						IJ.run(imp, "Skeletonize (2D/3D)", "");
-
-						// Save Image if desired
-						if (ini.get("Parameters","save_skeletonized_images",boolean.class))
-						{
-							FileSaver fs = new FileSaver(imp);
-							int start =ini.get("Parameters","n_start",double.class).intValue();
-							int step = ini.get("Parameters","n_step",double.class).intValue();
-							int number = start + (i-1)*step;
-							//fs.saveAsTiff(ini.get("Parameters","destinationpath",String.class)+CreateFileName(number, ini)+"_skeletonized.tif");
-							fs.saveAsZip(ini.get("Parameters","destinationpath",String.class)+CreateFileName(number, ini)+"_skeletonized.tif");
+		timer.addWires(number, tries);
+		timer.addPixels(pixels);
+		timer.stop();
+		return fp;
+	}
+	
+	static long SaveWires(GenerationParameters params, int number, Wire[] wires) {
+		
+		// writes the wire files of one image, returns the placement tries of all wires
+		String[] files = WireFiles(params, number);
+		long tries = 0;
+		
+		// The wire files stay open for the whole image (header is written by the sink)
+		WireSink sink = null;
+		try {
+			sink = OpenWireSink(params, files);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println(e.getMessage());
+		}
+		
+		try {
+			for (Wire draht : wires)
+			{
+				// Write Wire Data to the wire files
+				if (sink!=null){
+					try {
+						sink.write(draht);
+					} catch (IOException e) {
+						// keep on drawing, only the wire file is lost
+						e.printStackTrace();
+						System.err.println(e.getMessage());
+						CloseSink(sink);
+						sink = null;
+					}
+				}
+				tries += draht.getPlacementTries();
+			}
+		} finally {
+			CloseSink(sink);
+		}
+		for (String file : files) RunMetrics.current().addFile(file);
+		return tries;
+	}
+	
+	static String[] WireFiles(GenerationParameters params, int number) {
+		
+		// the wire files of one image: binary catalog and/or text export (wire_format bin, txt or both)
+		String base = params.getDestinationPath() + params.createFileName(number);
+		String format = params.getWireFormat();
+		if (format.equals("bin")) return new String[]{base + "_wire-catalog.bin"};
+		if (format.equals("txt")) return new String[]{base + "_wire-information.txt"};
+		return new String[]{base + "_wire-catalog.bin", base + "_wire-information.txt"};
+	}
+	
+	static WireSink OpenWireSink(GenerationParameters params, String[] files) throws IOException {
+		
+		// one sink for all wire files of an image
+		final WireSink[] sinks = new WireSink[files.length];
+		try {
+			for (int i = 0; i < files.length; i++) {
+				sinks[i] = files[i].endsWith(".bin") ? new WireCatalogSink(files[i], params) : new TextWireSink(files[i]);
+			}
+		} catch (IOException e) {
+			for (WireSink sink : sinks) CloseSink(sink);
+			throw e;
+		}
+		if (sinks.length==1) return sinks[0];
+		return new WireSink() {
+			@Override
+			public void write(Wire draht) throws IOException {
+				for (WireSink sink : sinks) sink.write(draht);
+			}
+			@Override
+			public void close() throws IOException {
+				// all are closed, the first error is thrown
+				IOException first = null;
+				for (WireSink sink : sinks) {
+					try {
+						sink.close();
+					} catch (IOException e) {
+						if (first==null) first = e;
+					}
+				}
+				if (first!=null) throw first;
+			}
+		};
+	}
+	
+	static FcrResult[] PerformNestedSweep(GenerationParameters params, int n_threads, ImageProcessor[] pictures, ImageProcessor[] skeletons) {
+		
+		// Nested sweep: all images are drawn on the same canvas, image i+1 is image i plus n_step new wires.
+		// The wires are the ones of the biggest image of the sequence (same random streams as in CreatePicture),
+		// the image with n wires has the first n of them.
+		// FCR is not done again for every image, the regions are updated with every new pixel (IncrementalLabeling).
+		// pictures / skeletons: the images are stored in there if not null
+		final int images = params.getNumberOfImages();
+		final int image_size = params.getImageSize();
+		final int last = params.getNumberOfWires(images-1);
+		FcrResult[] fcr_results = new FcrResult[images];
+		
+		Wire[] wires = CreateWires(params, last);
+		ByteProcessor canvas = new ByteProcessor(image_size, image_size);
+		IncrementalLabeling labeling = params.isPerformFcr() ? new IncrementalLabeling((byte[]) canvas.getPixels(), image_size, image_size) : null;
+		FcrResultsWriter results = params.isPerformFcr() ? new FcrResultsWriter(params) : null;
+		
+		// one wire file for the whole sequence, the image with n wires has the first n lines
+		WireSink sink = null;
+		try {
+			sink = OpenWireSink(params, WireFiles(params, last));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println(e.getMessage());
+		}
+		
+		try {
+			int drawn = 0;
+			for (int i = 0; i < images; i++) {
+				int number = params.getNumberOfWires(i);
+				String filename = params.createFileName(number);
+				RunMetrics.Timer timer = RunMetrics.current().start("generation");
+				int before = drawn;
+				long tries = 0;
+				long pixels = 0;
+				
+				// only the new wires
+				for (; drawn < number; drawn++)
+				{
+					Wire draht = wires[drawn];
+					if (sink!=null){
+						try {
+							sink.write(draht);
+						} catch (IOException e) {
+							e.printStackTrace();
+							System.err.println(e.getMessage());
+							CloseSink(sink);
+							sink = null;
 						}
-
-						// Save Image in results array
-						results[i-1] = imp.getProcessor();  
-						imp.flush();  
-					}  
+					}
+					if (labeling!=null){
+						WireRasterizer.draw(draht, labeling, 0, 0, image_size-1, image_size-1);
+					} else {
+						pixels += WireRasterizer.draw(draht, canvas);
+					}
+					tries += draht.getPlacementTries();
+				}
+				
+				// the canvas goes on, so every image is a copy of it
+				ByteProcessor picture = (ByteProcessor) canvas.duplicate();
+				SliceWriter.save(params, picture, params.getDestinationPath() + filename);
+				System.out.println(filename+" -----> done.");
+				timer.addWires(drawn-before, tries);
+				timer.addPixels(pixels);
+				timer.stop();
+				if (pictures!=null) pictures[i] = picture;
+				
+				if (params.isPerformSkeletonize()){
+					ImageProcessor skeleton = SkeletonizePicture(picture, params, number, null);
+					if (skeletons!=null) skeletons[i] = skeleton;
 				}
-			};  
-		}  
+				
+				if (labeling!=null){
+					// the image of all regions is only labeled if it's saved
+					ImageProcessor labels = params.isSaveFcrImages() ? ConnectedComponents.label(picture, n_threads, true).getLabels() : null;
+					fcr_results[i] = RecordFcrResult(params, results, number, labeling.getCount(), labeling.getPercolation(), labeling.getCoverage(), labeling.isSpanning(), labels, pictures!=null);
+				}
+			}
+		} finally {
+			CloseSink(sink);
+			if (results!=null) results.close();
+		}
+		return fcr_results;
+	}
+	
+	private void ShowNestedSweep(GenerationParameters params) {
+		
+		// runs the nested sweep and shows the same stacks as the normal mode
+		// (the FCR stack only if the FCR images are saved, they are not created otherwise)
+		int images = params.getNumberOfImages();
+		boolean keep = !params.isVirtualStacks();
+		ImageProcessor[] pictures = keep ? new ImageProcessor[images] : null;
+		ImageProcessor[] skeletons = keep && params.isPerformSkeletonize() ? new ImageProcessor[images] : null;
+		FcrResult[] fcr_results = PerformNestedSweep(params, Prefs.getThreads(), pictures, skeletons);
+		
+		ImageStack wires_stack = keep ? CreateStack(params, pictures, null) : CreateVirtualStack(params, images, null, "");
+		new ImagePlus("Created Wires", wires_stack).show();
+		if (params.isPerformSkeletonize()){
+			ImageStack skel_stack = keep ? CreateStack(params, skeletons, "Skeletonized ") : CreateVirtualStack(params, images, "Skeletonized ", "_skeletonized");
+			new ImagePlus("Skeletonize Results", skel_stack).show();
+		}
+		if (params.isPerformFcr()){
+			if (params.isSaveFcrImages()){
+				ImageProcessor[] regions = new ImageProcessor[images];
+				for (int i=0; i< images; i++) regions[i] = fcr_results[i].getRegions();
+				ImageStack fcr_stack = keep ? CreateStack(params, regions, "FCR ") : CreateVirtualStack(params, images, "FCR ", "_FCR");
+				new ImagePlus("FCR Results", fcr_stack).show();
+			}
+			ShowCoveragePlot(fcr_results);
+		}
+	}
+	
+	private static ImageStack CreateStack(GenerationParameters params, ImageProcessor[] images, String label){
+		
+		// label==null: the filename is the label
+		ImageStack stack = new ImageStack(params.getImageSize(), params.getImageSize());
+		for (int i=0; i< images.length; i++) {
+			stack.addSlice(label==null ? params.createFileName(params.getNumberOfWires(i)) : label + i, images[i]);
+		}
+		return stack;
+	}
+	
+	static BitCanvas DrawPicture(GenerationParameters params, int number, int realization, int n_threads) {
+		
+		// like CreatePicture(), but nothing is saved
+		// realization: index of the random stream for this number (0 = the one of CreatePicture)
+		BitCanvas fp = new BitCanvas(params.getImageSize(),params.getImageSize());
+		BandRasterizer.draw(CreateWires(params, number, realization), fp, n_threads);
+		return fp;
+	}
+	
+	static Wire[] CreateWires(GenerationParameters params, int number) {
+		return CreateWires(params, number, 0);
+	}
+	
+	static Wire[] CreateWires(final GenerationParameters params, final int number, final int realization) {
+		
+		// the same wires CreatePicture() draws for this number, but nothing is drawn or saved
+		// every WireRandom.WIRES_PER_STREAM wires have their own random stream, these chunks are created in parallel
+		final Wire[] wires = new Wire[number];
+		int chunks = (number + WireRandom.WIRES_PER_STREAM-1) / WireRandom.WIRES_PER_STREAM;
+		WireScheduler.split("wire generation", chunks, new WireScheduler.Task() {
+			@Override
+			public void run(int chunk) {
+				WireRandom random = WireRandom.forWires(params.getSeed(), number, realization, chunk);
+				int end = (int) Math.min(number, (long)(chunk+1)*WireRandom.WIRES_PER_STREAM);
+				for (int j = chunk*WireRandom.WIRES_PER_STREAM; j < end; j++)
+				{
+					wires[j] = new Wire(params, random);
+				}
+			}
+		});
+		return wires;
+	}
+	
+	static WireNetworkResult[] PerformGeometricPercolation(final GenerationParameters params, int n_threads) {
+		
+		// clusters of every image of the sequence directly from the wire geometry
+		// (see WireNetwork), the results are written to one file in the order of the sequence
+		final int images = params.getNumberOfImages();
+		final WireNetworkResult[] results = new WireNetworkResult[images];
+		// if there are less images than threads, the contact search of each image is split up too
+		final int network_threads = Math.max(1, n_threads/images);
+		
+		WireScheduler.run("geometric percolation", images, new WireScheduler.Task() {
+			@Override
+			public void run(int i) {
+				int number = params.getNumberOfWires(i);
+				RunMetrics.Timer timer = RunMetrics.current().start("geometric");
+				Wire[] wires = CreateWires(params, number);
+				results[i] = WireNetwork.analyze(wires, params.getImageSize(), network_threads);
+				timer.stop();
+				long tries = 0;
+				for (Wire w : wires) tries += w.getPlacementTries();
+				timer.addWires(number, tries);
+				System.out.println("Wire network with "+number+" wires has "+results[i].getClusters()+" clusters");
+			}
+		});
+		
+		StringBuilder text = new StringBuilder("#wires" + '\t'+ "#clusters" + '\t'+ "largest" + '\t'+ "spanning" + '\t'+ "contacts");
+		for (int i = 0; i < images; i++){
+			WireNetworkResult r = results[i];
+			double largest = ((int)((r.getLargestFraction()+0.0005)*1000))/1000.0;
+			text.append('\n').append(r.getWires()).append('\t').append(r.getClusters()).append('\t').append(largest)
+				.append('\t').append(r.isSpanning()).append('\t').append(r.getContacts());
+		}
+		String filename_results = params.getDestinationPath() + "00-geometric_results.txt";
+		new File(filename_results).delete();
+		WriteToFile(filename_results, text.toString());
+		return results;
+	}
+	
+	private ImagePlus PerformSkeletonize(final ImagePlus stack, final GenerationParameters params) {
+
+		final int stacksize = stack.getStackSize();
+		// store all result images here
+		final ImageProcessor[] results = new ImageProcessor[stacksize];
 
-		startAndJoin(threads);  
+		// every slice is one task of the shared pool, the index is the one in the results array
+		WireScheduler.run("skeletonize", stacksize, new WireScheduler.Task() {
+			@Override
+			public void run(int i) {
+				//Print what you're doing
+				System.err.println("I'm Thread-"+ Thread.currentThread().getId()+ " and I'm doing Skeletonize on Element number " + (i+1));
+
+				// Skeletonize and save Image in results array (the slices start with 1)
+				ImageProcessor skeleton = SkeletonizePicture(stack.getStack().getProcessor(i+1), params, params.getNumberOfWires(i), WireCache.key(params, params.getNumberOfWires(i)));
+				// virtual stacks read the saved file again later
+				if (!params.isVirtualStacks()) results[i] = skeleton;
+			}
+		});
 
 		// now the results array is full. Just show them in a stack:  
-		final ImageStack stack_new = new ImageStack(stack.getProcessor().getHeight(), stack.getProcessor().getHeight());  
-		for (int i=0; i< results.length; i++) {  
-			stack_new.addSlice("Skeletonized " + i, results[i]);  
-		}  
+		final ImageStack stack_new;
+		if (params.isVirtualStacks()){
+			stack_new = CreateVirtualStack(params, stacksize, "Skeletonized ", "_skeletonized");
+		} else {
+			stack_new = new ImageStack(stack.getProcessor().getHeight(), stack.getProcessor().getHeight());  
+			for (int i=0; i< results.length; i++) {  
+				stack_new.addSlice("Skeletonized " + i, results[i]);  
+			}  
+		}
 
 		ImagePlus imp = new ImagePlus("Skeletonize Results", stack_new);  
 		return imp;
 	}
 	
 	
-	private ImagePlus PerformFCR(final ImagePlus stack, final Ini ini) {
+	private ImagePlus PerformFCR(final ImagePlus stack, final GenerationParameters params) {
 		
-		// the AtomicInteger ensures that the different threads don't read the same counter variable at the same time
-		// or one thread increases variable during another thread reads it etc...
-		final AtomicInteger ai = new AtomicInteger(1);
 		final int stacksize = stack.getStackSize();
 		final double[][] cov_perc = new double[2][stacksize];
-		
-		// store all result images here  
-		final ImageProcessor[] results = new ImageProcessor[stacksize];  
+		// if there are less images than threads, the labeling of each image is split up too
+		final int labeling_threads = Math.max(1, WireScheduler.getThreads()/stacksize);
 
-		final Thread[] threads = newThreadArray();  
-		
-		for (int ithread = 0; ithread < threads.length; ithread++) {  
-		// for (int ithread = 0; ithread < 3; ithread++) {
-			// Concurrently run in as many threads as CPUs 
-		
-			threads[ithread] = new Thread() {  
+		// store all result images here
+		final ImageProcessor[] results = new ImageProcessor[stacksize];
 
-				{ setPriority(Thread.NORM_PRIORITY); }  
+		// one results file for all threads
+		final FcrResultsWriter results_writer = new FcrResultsWriter(params);
 
+		try {
+			WireScheduler.run("FCR", stacksize, new WireScheduler.Task() {
 				@Override
-				public void run() {  
-
-					// Each thread processes a few items in the total stack 
-					// Each loop iteration within the run method  
-					// has a unique 'i' number to work with  
-					// and to use as index in the results array:  
-
-					for (int i = ai.getAndIncrement(); i <= stacksize; i = ai.getAndIncrement()) {  
-						//get Image out of stack 
-						ImageProcessor ip = stack.getStack().getProcessor(i).duplicate();  
-												
-						//Print what you're doing
-						System.err.println("I'm Thread-"+ Thread.currentThread().getId()+ " and I'm doing FCR on Element number " + i);
-
-						ImagePlus imp = new ImagePlus("FCR " + i, ip);  
-						// Run the plugin on the new image:
-						long time = System.currentTimeMillis();
-						FindConnectedRegions fcr= new FindConnectedRegions();
-						FindConnectedRegions.Results fcrresults = fcr.run(imp, true, true, true, true, true, false, false, 100, 1, -1, true);
-						System.out.println((System.currentTimeMillis()-time)/1000.0 + " Sekunden");
-						// Assign different Results to Variables
-						ImagePlus allRegionsImp = fcrresults.allRegions;
-						List<Region> infoList = fcrresults.regionInfo;
-						
-						int number_of_CRs = infoList.size();
-						int area_max = 0;
-						int area_sum = 0;
-						for (int n = 0; n< infoList.size(); n++){
-							area_max = Math.max(area_max, infoList.get(n).getNumberOfPoints());
-							area_sum += infoList.get(n).getNumberOfPoints();
-						}
-						// Percolation:
-						cov_perc[1][i-1]= area_max/(double)area_sum;
-						
-						// Coverage:
-						cov_perc[0][i-1] = area_sum /(double)(allRegionsImp.getProcessor().getHeight()*allRegionsImp.getProcessor().getWidth());
-						
-						// Round em on 3 digits
-						cov_perc[1][i-1]= ((int)((cov_perc[1][i-1]+0.0005)*1000))/1000.0;
-						cov_perc[0][i-1] = ((int)((cov_perc[0][i-1]+0.0005)*1000))/1000.0;
-						
-						//Save FCR Results in file
-						final int start = ini.get("Parameters","n_start",double.class).intValue();
-						final int step = ini.get("Parameters","n_step",double.class).intValue();
-						int number = start + (i-1)*step;
-						String filename = CreateFileName(number, ini);
-						String filename_picture = ini.get("Parameters","destinationpath",String.class) + filename +"_FCR.tif";
-						String filename_results = ini.get("Parameters","destinationpath",String.class) + "00-FCR_results.txt";
-						
-						File f = new File(filename_results);
-						if (!f.exists()){
-							// If we're the first thread to finish FCR we write header + values
-							WriteToFile(filename_results,"#wires" + '\t'+ "#CR" + '\t'+ "perc."+ '\t'+ "cov.");
-							WriteToFile(filename_results, "" + number + '\t'+ number_of_CRs + '\t'+ cov_perc[1][i-1]+ '\t'+ cov_perc[0][i-1]);
-						}
-						else{// we just write the values
-							WriteToFile(filename_results, "" + number + '\t'+ number_of_CRs + '\t'+ cov_perc[1][i-1]+ '\t'+ cov_perc[0][i-1]);
-						}
-						
-						// Tell User the one Number he's interested in! 
-						System.out.println("Image with "+number +" wires has "+ number_of_CRs + " regions");
-
-						// Save Image if desired
-						if (ini.get("Parameters","save_fcr_images",boolean.class))
-						{
-							FileSaver fs = new FileSaver(allRegionsImp);
-							//fs.saveAsTiff(filename_picture);
-							fs.saveAsZip(filename_picture);
-						}
+				public void run(int i) {
+					//Print what you're doing
+					System.err.println("I'm Thread-"+ Thread.currentThread().getId()+ " and I'm doing FCR on Element number " + (i+1));
 
-						// Save Image in results array
-						results[i-1] = allRegionsImp.getProcessor();
-						allRegionsImp.flush();
-						imp.flush();  
-					}  
-				}
-			};  
-		}  
+					FcrResult fcr = FCRPicture(stack.getStack().getProcessor(i+1), params, results_writer, params.getNumberOfWires(i), labeling_threads, !params.isVirtualStacks(), WireCache.key(params, params.getNumberOfWires(i)));
+					cov_perc[0][i] = fcr.getCoverage();
+					cov_perc[1][i] = fcr.getPercolation();
 
-		startAndJoin(threads);  
+					// Save Image in results array
+					if (!params.isVirtualStacks()) results[i] = fcr.getRegions();
+				}
+			});
+		} finally {
+			results_writer.close();
+		}
 
 		// now the results array is full. Just show them in a stack:  
-		final ImageStack stack_new = new ImageStack(stack.getProcessor().getHeight(), stack.getProcessor().getHeight());  
-		for (int i=0; i< results.length; i++) {  
-			stack_new.addSlice("FCR " + i, results[i]);  
-		}  
+		final ImageStack stack_new;
+		if (params.isVirtualStacks()){
+			stack_new = CreateVirtualStack(params, stacksize, "FCR ", "_FCR");
+		} else {
+			stack_new = new ImageStack(stack.getProcessor().getHeight(), stack.getProcessor().getHeight());  
+			for (int i=0; i< results.length; i++) {  
+				stack_new.addSlice("FCR " + i, results[i]);  
+			}  
+		}
 
-		Plot p = new Plot("Coverage vs Percolation", "Coverage", "Percolation",cov_perc[0], cov_perc[1]);
-//		Plot p = new Plot("Coverage vs Percolation", "Coverage", "Percolation");
-//		p.addPoints( cov_perc[0], cov_perc[1], 1);
-		p.show();
+		ShowCoveragePlot(cov_perc);
 		ImagePlus imp = new ImagePlus("FCR Results", stack_new);  
 		return imp;
 	}
 	
 	
-	private ImagePlus CreatePicturtes(final Ini ini, final ArrayList<String> length_prop_list, final ArrayList<String> width_prop_list, final ArrayList<String> alpha_prop_list){
-
-		// get necessary values from the Ini
-		final int start = ini.get("Parameters","n_start",double.class).intValue();
-		final int end =  ini.get("Parameters","n_end",double.class).intValue();
-		final int step = ini.get("Parameters","n_step",double.class).intValue();
-		final int image_size = ini.get("Parameters","image_size",double.class).intValue();
-		final String path = ini.get("Parameters","destinationpath",String.class);
-		final int stacksize = (end-start)/step;
-		final AtomicInteger ai = new AtomicInteger(0);
-				
-		// store all result images here  
-		final ImageProcessor[] results = new ImageProcessor[stacksize+1];  
+	private static ImageStack CreateVirtualStack(GenerationParameters params, int stacksize, String label, String suffix){
 		
-		final Thread[] threads = newThreadArray();  
-
-		for (int ithread = 0; ithread < threads.length; ithread++) {  
-
-			// Concurrently run in as many threads as CPUs  
-			threads[ithread] = new Thread() {  
+		// stack of the files saved by a stage (all of them have to be on disk)
+		// label==null: the filename is the label
+		SliceWriter.flush();
+		ZipVirtualStack stack = new ZipVirtualStack(params.getImageSize(), params.getImageSize(), params.getDestinationPath());
+		for (int i=0; i< stacksize; i++) {
+			String filename = params.createFileName(params.getNumberOfWires(i));
+			stack.addSlice(label==null ? filename : label + i, SliceWriter.path(params, params.getDestinationPath() + filename + suffix));
+		}
+		return stack;
+	}
+	
+	private static void ShowCoveragePlot(FcrResult[] fcr_results){
+		
+		double[][] cov_perc = new double[2][fcr_results.length];
+		for (int i=0; i< fcr_results.length; i++) {
+			cov_perc[0][i] = fcr_results[i].getCoverage();
+			cov_perc[1][i] = fcr_results[i].getPercolation();
+		}
+		ShowCoveragePlot(cov_perc);
+	}
+	
+	private static void ShowClusterPlot(WireNetworkResult[] network_results){
+		
+		double[] wires = new double[network_results.length];
+		double[] largest = new double[network_results.length];
+		for (int i=0; i< network_results.length; i++) {
+			wires[i] = network_results[i].getWires();
+			largest[i] = network_results[i].getLargestFraction();
+		}
+		Plot p = new Plot("Wires vs largest Cluster", "Wires", "largest Cluster / Wires");
+		p.addPoints(wires, largest, Plot.LINE);
+		p.show();
+	}
+	
+	private static void ShowCoveragePlot(EnsembleResult[] ensemble_results){
+		
+		// mean values with the 95% confidence intervals as error bars
+		int n = ensemble_results.length;
+		double[] cov = new double[n], perc = new double[n], cov_ci = new double[n], perc_ci = new double[n];
+		for (int i=0; i< n; i++) {
+			cov[i] = ensemble_results[i].getMean(EnsembleResult.COVERAGE);
+			perc[i] = ensemble_results[i].getMean(EnsembleResult.PERCOLATION);
+			cov_ci[i] = ensemble_results[i].getConfidence(EnsembleResult.COVERAGE);
+			perc_ci[i] = ensemble_results[i].getConfidence(EnsembleResult.PERCOLATION);
+		}
+		Plot p = new Plot("Coverage vs Percolation", "Coverage", "Percolation");
+		p.addPoints(cov, perc, perc_ci, Plot.CIRCLE);
+		p.addHorizontalErrorBars(cov_ci);
+		p.show();
+	}
+	
+	private static void ShowCoveragePlot(double[][] cov_perc){
+		
+		Plot p = new Plot("Coverage vs Percolation", "Coverage", "Percolation",cov_perc[0], cov_perc[1]);
+//		Plot p = new Plot("Coverage vs Percolation", "Coverage", "Percolation");
+//		p.addPoints( cov_perc[0], cov_perc[1], 1);
+		p.show();
+	}
+	
+	private ImagePlus CreatePicturtes(final GenerationParameters params){
 
-				{ setPriority(Thread.NORM_PRIORITY); }  
+		// get necessary values from the parameters
+		final int image_size = params.getImageSize();
+		final int stacksize = params.getNumberOfImages();
 
-				@Override
-				public void run() {  
-
-					// Each thread processes a few items in the total stack 
-					// Each loop iteration within the run method  
-					// has a unique 'i' number to work with  
-					// and to use as index in the results array:  
-
-					for (int i = ai.getAndIncrement(); i <= stacksize; i = ai.getAndIncrement()) {
-						
-						int number = start + i*step;
-						String filename = CreateFileName(number, ini);
-						String filename_picture =  path + filename +".tif";
-						String filename_results = path + filename +"_wire-information.txt";
-						
-						// write Fileheader
-						WriteToFile(filename_results, "Length"+'\t'+"Width"+'\t'+"x1"+'\t'+"y1"+'\t'+"x2"+'\t'+"y2"+'\t'+"mx"+'\t'+"my"+'\t'+"r"+'\t'+"alpha"+'\t'+"phi");
-						
-						// Create new, black Picture
-						ByteProcessor fp = new ByteProcessor(image_size,image_size);
-						ImagePlus imp = new ImagePlus(filename,fp);
-						
-						//Print what you're doing
-						System.err.println("I'm Thread-"+ Thread.currentThread().getId()+ ", and I'm creating a Picture with " + number + " wires");
-
-						// Draw and save the Wires
-						for (int j = 0; j < number; j++)
-						{
-							// Create a wire
-							Wire draht = new Wire(ini, length_prop_list, width_prop_list, alpha_prop_list);
-							// Write Wire Data to txt file
-							WriteToFile(filename_results,draht);
-							// Draw it
-							fp = Draw(draht,fp);
-						}
-									
-						// Save Image as tif
-						FileSaver fs = new FileSaver(imp);
-						//fs.saveAsTiff(filename_picture);
-						fs.saveAsZip(filename_picture);
-						System.out.println(filename+" -----> done.");
-
-						// Save Image in results array
-						results[i] = imp.getProcessor();  
-						imp.flush();  
-					}  
-				}
-			};  
-		}  
+		// store all result images here
+		final ImageProcessor[] results = new ImageProcessor[stacksize];
+		// if there are less images than threads, every image is drawn by several threads
+		final int drawing_threads = Math.max(1, WireScheduler.getThreads()/stacksize);
 
-		startAndJoin(threads);  
+		WireScheduler.run("generation", stacksize, new WireScheduler.Task() {
+			@Override
+			public void run(int i) {
+				// Create Image and save it in results array (8 bit for the stack)
+				BitCanvas picture = CreatePicture(params, params.getNumberOfWires(i), drawing_threads);
+				// virtual stacks read the saved file again later
+				if (!params.isVirtualStacks()) results[i] = picture.toByteProcessor();
+			}
+		});
 
 		// now the results array is full. Just show them in a stack:  
-		final ImageStack stack_new = new ImageStack(image_size,image_size);  
-		for (int i=0; i< results.length; i++) {
-			int number = start + i*step;
-			stack_new.addSlice(CreateFileName(number, ini), results[i]);  
-		}  
+		final ImageStack stack_new;
+		if (params.isVirtualStacks()){
+			stack_new = CreateVirtualStack(params, results.length, null, "");
+		} else {
+			stack_new = new ImageStack(image_size,image_size);  
+			for (int i=0; i< results.length; i++) {
+				int number = params.getNumberOfWires(i);
+				stack_new.addSlice(params.createFileName(number), results[i]);  
+			}  
+		}
 
 		ImagePlus imp = new ImagePlus("Created Wires", stack_new);  
 		return imp;
 	}
-	
-	private Thread[] newThreadArray() {  
-        // int n_cpus = Runtime.getRuntime().availableProcessors();
-		// System.err.println(Prefs.getThreads());
-		// here the number of treads from the menue preferences
-		int n_cpus = Prefs.getThreads();
-		return new Thread[n_cpus];  
-	}
-	
-	 public static void startAndJoin(Thread[] threads)  
-	    {  
-	        for (int ithread = 0; ithread < threads.length; ++ithread)  
-	        {  
-	            threads[ithread].setPriority(Thread.NORM_PRIORITY);  
-	            threads[ithread].start();  
-	        }  
-	  
-	        try  
-	        {     
-	            for (int ithread = 0; ithread < threads.length; ++ithread)  
-	                threads[ithread].join();  
-	        } catch (InterruptedException ie)  
-	        {  
-	            throw new RuntimeException(ie);  
-	        }  
-	    }  
 	}
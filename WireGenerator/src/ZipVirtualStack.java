@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.io.Opener;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/*
+ * Result stack that doesn't hold the images in memory.
+ * The slices are the files the plugin already saved (SliceWriter, any image_format ImageJ can open),
+ * they are loaded from disk when a slice is needed.
+ * The last few loaded slices are kept in a small LRU cache, so scrolling back and forth is smooth.
+ * The slices are read only: changes to a processor are lost when it leaves the cache.
+ */
+
+public class ZipVirtualStack extends VirtualStack {
+
+	// memory the cache may use, the number of cached slices is calculated from it
+	private static final long CACHE_BYTES = 256L*1024*1024;
+
+	private final ArrayList<String> paths = new ArrayList<String>();
+	private final ArrayList<String> labels = new ArrayList<String>();
+	private final LinkedHashMap<Integer, ImageProcessor> cache;
+	private final int cache_size;
+
+	public ZipVirtualStack(int width, int height, String directory){
+
+		super(width, height, null, directory);
+		this.cache_size = (int) Math.max(2, Math.min(32, CACHE_BYTES/Math.max(1L, (long)width*height)));
+		// access ordered map: the eldest entry is the least recently used one
+		this.cache = new LinkedHashMap<Integer, ImageProcessor>(cache_size+1, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ImageProcessor> eldest){
+				return size() > cache_size;
+			}
+		};
+	}
+
+	public void addSlice(String label, String path){
+		paths.add(path);
+		labels.add(label);
+	}
+
+	@Override
+	public ImageProcessor getProcessor(int n){
+
+		// several threads may read the stack, only the cache is locked (not the loading)
+		synchronized (cache){
+			ImageProcessor ip = cache.get(n);
+			if (ip!=null) return ip;
+		}
+		ImageProcessor ip = load(n);
+		synchronized (cache){
+			cache.put(n, ip);
+		}
+		return ip;
+	}
+
+	private ImageProcessor load(int n){
+
+		String path = paths.get(n-1);
+		Opener opener = new Opener();
+		opener.setSilentMode(true);
+		ImagePlus imp = opener.openImage(path);
+		if (imp==null){
+			// file was deleted or is broken, show a black slice instead of failing
+			System.err.println("Could not open " + path);
+			return new ByteProcessor(getWidth(), getHeight());
+		}
+		ImageProcessor ip = imp.getProcessor();
+		imp.flush();
+		return ip;
+	}
+
+	@Override
+	public Object getPixels(int n){
+		return getProcessor(n).getPixels();
+	}
+
+	@Override
+	public void setPixels(Object pixels, int n){
+		// read only
+	}
+
+	@Override
+	public void deleteSlice(int n){
+		if (n<1 || n>paths.size()) return;
+		paths.remove(n-1);
+		labels.remove(n-1);
+		// slice numbers have changed
+		synchronized (cache){
+			cache.clear();
+		}
+	}
+
+	@Override
+	public int getSize(){
+		return paths.size();
+	}
+
+	@Override
+	public int size(){
+		return getSize();
+	}
+
+	@Override
+	public String getSliceLabel(int n){
+		if (n<1 || n>labels.size()) return null;
+		return labels.get(n-1);
+	}
+
+	@Override
+	public String getFileName(int n){
+		return paths.get(n-1);
+	}
+
+}